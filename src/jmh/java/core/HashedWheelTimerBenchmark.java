@@ -0,0 +1,46 @@
+package core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class HashedWheelTimerBenchmark {
+
+    @Param({ "0", "10000", "100000" })
+    public int backgroundTimeouts;
+
+    private HashedWheelTimer timer;
+    private final List<HashedWheelTimer.Timeout> background = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        timer = HashedWheelTimer.start(Duration.ofMillis(100), 512);
+        for (int i = 0; i < backgroundTimeouts; i++) {
+            background.add(timer.newTimeout(() -> {}, Duration.ofSeconds(60 + i % 600)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        background.forEach(HashedWheelTimer.Timeout::cancel);
+        timer.close();
+    }
+
+    @Benchmark
+    public boolean scheduleAndCancel() {
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(() -> {}, Duration.ofSeconds(ThreadLocalRandom.current().nextInt(1, 300)));
+        return timeout.cancel();
+    }
+
+}
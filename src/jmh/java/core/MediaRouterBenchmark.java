@@ -0,0 +1,55 @@
+package core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MediaRouterBenchmark {
+
+    private MediaRouter mediaRouter;
+    private ShardConfig shardConfig;
+
+    @Setup
+    public void setup() {
+        shardConfig = new ShardConfig(true, 10, ShardConfig.parseShards("0,1,2,3,4,5,6,7,8,9", 10));
+        mediaRouter = new MediaRouter(shardConfig, new Rule34Source(), new DanbooruSource(), new RealbooruSource());
+    }
+
+    @Benchmark
+    public VideoRequest routeRule34() {
+        return mediaRouter.route("/media/rule34/4821/8f9e7a6b5c4d3e2f1a0b9c8d7e6f5a4b.mp4?s=wimg");
+    }
+
+    @Benchmark
+    public VideoRequest routeDanbooru() {
+        return mediaRouter.route("/media/danbooru/8f/9e/8f9e7a6b5c4d3e2f1a0b9c8d7e6f5a4b.mp4");
+    }
+
+    @Benchmark
+    public VideoRequest routeRealbooru() {
+        return mediaRouter.route("/media/realbooru/8f/9e/8f9e7a6b5c4d3e2f1a0b9c8d7e6f5a4b.webm");
+    }
+
+    @Benchmark
+    public VideoRequest routeInvalid() {
+        return mediaRouter.route("/media/rule34/4821/../../etc/passwd");
+    }
+
+    @Benchmark
+    public VideoRequest routeRedirectParameters() {
+        return mediaRouter.route("rule34", "4821", "8f9e7a6b5c4d3e2f1a0b9c8d7e6f5a4b.mp4?s=wimg");
+    }
+
+    @Benchmark
+    public boolean isResponsible() {
+        return shardConfig.isResponsible("8f/9e", "8f9e7a6b5c4d3e2f1a0b9c8d7e6f5a4b.mp4");
+    }
+
+}
@@ -0,0 +1,43 @@
+package core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerPageBenchmark {
+
+    private PlayerPage playerPage;
+
+    @Setup
+    public void setup() {
+        playerPage = new PlayerPage(
+                "https://media.lawlietbot.xyz/media/rule34/4821/8f9e7a6b5c4d3e2f1a0b9c8d7e6f5a4b.mp4?s=wimg",
+                "https://wimg.rule34.xxx/images/4821/8f9e7a6b5c4d3e2f1a0b9c8d7e6f5a4b.jpg",
+                1280,
+                720,
+                "https://media.lawlietbot.xyz/player/rule34/4821/8f9e7a6b5c4d3e2f1a0b9c8d7e6f5a4b.mp4?s=wimg&w=1280&h=720&format=oembed"
+        );
+    }
+
+    @Benchmark
+    public byte[] renderHtml() {
+        return playerPage.renderHtml();
+    }
+
+    @Benchmark
+    public byte[] renderOEmbed() {
+        return playerPage.renderOEmbed();
+    }
+
+    @Benchmark
+    public String etag() {
+        return PlayerPage.getETag("/rule34/4821/8f9e7a6b5c4d3e2f1a0b9c8d7e6f5a4b.mp4", "wimg", 1280, 720, false);
+    }
+
+}
@@ -0,0 +1,42 @@
+package core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class SingleFlightBenchmark {
+
+    @Param({ "1", "64", "4096" })
+    public int keys;
+
+    private SingleFlight<Integer, Integer> singleFlight;
+
+    @Setup
+    public void setup() {
+        singleFlight = new SingleFlight<>();
+    }
+
+    @Benchmark
+    public Integer runCompleted() {
+        int key = ThreadLocalRandom.current().nextInt(keys);
+        return singleFlight.run(key, () -> CompletableFuture.completedFuture(key)).join();
+    }
+
+    @Benchmark
+    public Integer runInFlight() {
+        int key = ThreadLocalRandom.current().nextInt(keys);
+        CompletableFuture<Integer> future = singleFlight.run(key, CompletableFuture::new);
+        future.complete(key);
+        return future.join();
+    }
+
+}
@@ -0,0 +1,40 @@
+package core;
+
+import org.openjdk.jmh.annotations.*;
+import util.HashUtil;
+import util.StringUtil;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringUtilBenchmark {
+
+    private final String imageUrl = "https://i.pximg.net/img-original/img/2021/01/01/00/00/00/12345678_p0.png";
+    private final String alphanumeric = "8f9e7a6b5c4d3e2f1a0b9c8d7e6f5a4b";
+
+    @Benchmark
+    public String getUriExt() {
+        return StringUtil.getUriExt(imageUrl);
+    }
+
+    @Benchmark
+    public boolean stringIsAlphanumeric() {
+        return StringUtil.stringIsAlphanumeric(alphanumeric);
+    }
+
+    @Benchmark
+    public long parseByteSize() {
+        return StringUtil.parseByteSize("512G");
+    }
+
+    @Benchmark
+    public long hash64() {
+        return HashUtil.hash64("8f/9e", '/', alphanumeric);
+    }
+
+}
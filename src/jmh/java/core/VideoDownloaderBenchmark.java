@@ -0,0 +1,82 @@
+package core;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VideoDownloaderBenchmark {
+
+    @Param({ "262144", "8388608" })
+    public int videoSize;
+
+    private final AtomicLong counter = new AtomicLong();
+    private HttpServer origin;
+    private String originUrl;
+    private VideoDownloader videoDownloader;
+    private HashedWheelTimer timer;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] video = new byte[videoSize];
+        new Random(0).nextBytes(video);
+
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.setExecutor(Executors.newCachedThreadPool());
+        origin.createContext("/", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+            exchange.getResponseHeaders().set("ETag", "\"benchmark\"");
+            exchange.sendResponseHeaders(200, video.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(video);
+            }
+        });
+        origin.start();
+        originUrl = "http://127.0.0.1:" + origin.getAddress().getPort() + "/images/";
+
+        OkHttpClient httpClient = new OkHttpClient.Builder().build();
+        timer = HashedWheelTimer.start(Duration.ofMillis(100), 512);
+        videoDownloader = new VideoDownloader(
+                httpClient,
+                new MediaIndex(),
+                new PeerFetcher(httpClient, null, Collections.emptyList(), Collections.emptyMap(), 0),
+                timer,
+                null
+        );
+    }
+
+    @TearDown(Level.Iteration)
+    public void cleanUp() throws IOException {
+        FileUtils.deleteDirectory(new File(VideoDownloader.VIDEO_ROOT_DIR, "benchmark"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        origin.stop(0);
+        timer.close();
+    }
+
+    @Benchmark
+    public File download() {
+        String videoFile = counter.incrementAndGet() + ".mp4";
+        return videoDownloader.downloadVideo("benchmark", originUrl + videoFile, "1", videoFile).join();
+    }
+
+}
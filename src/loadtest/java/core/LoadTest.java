@@ -0,0 +1,287 @@
+package core;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/*
+ * starts Main as a child process against a stub origin and a redis stand-in, replays a workload and reports the results:
+ * gradle loadTest -PloadTestArgs="--requests=50000 --paths=2000 --zipf=1.1 --concurrency=64 --size=512K --latency=20"
+ * options: --concurrency, --port, --cdn-root, --keep, --metrics=<regex>, --env.NAME=value, see Workload and StubOrigin
+ */
+public class LoadTest {
+
+    private static final String AUTH = "loadtest";
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(60);
+    private static final String DOWNLOAD_FAILURES_METRIC = "media_download_failures_total";
+    private static final String DEFAULT_METRICS = "^(media_cache_requests_total|media_single_flight_requests_total|" +
+            "media_download_failures_total|media_download_bytes_total|pixiv_proxy_requests_total)";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "32"));
+        int port = Integer.parseInt(options.getOrDefault("port", "9191"));
+        List<Workload.Request> requests = Workload.fromOptions(options, AUTH);
+
+        Path workDir = Files.createTempDirectory("lawliet-loadtest");
+        Path cdnRoot = options.containsKey("cdn-root") ? Path.of(options.get("cdn-root")) : workDir.resolve("cdn");
+        Files.createDirectories(cdnRoot);
+        File nodeLog = workDir.resolve("node.log").toFile();
+
+        try (StubOrigin origin = new StubOrigin(options); RedisStub redis = new RedisStub()) {
+            Process node = startNode(options, port, cdnRoot, origin.getPort(), redis.getPort(), nodeLog);
+            try {
+                HttpClient httpClient = HttpClient.newBuilder()
+                        .version(HttpClient.Version.HTTP_1_1)
+                        .connectTimeout(Duration.ofSeconds(5))
+                        .executor(Executors.newFixedThreadPool(Math.max(4, concurrency / 4)))
+                        .build();
+                String nodeUrl = "http://127.0.0.1:" + port;
+                awaitReady(httpClient, nodeUrl, node);
+
+                System.out.println("Replaying " + requests.size() + " requests with concurrency " + concurrency + "...");
+                long failuresBefore = sumMetric(fetchMetrics(httpClient, nodeUrl), DOWNLOAD_FAILURES_METRIC);
+                Result result = run(httpClient, nodeUrl, requests, concurrency);
+                String metrics = fetchMetrics(httpClient, nodeUrl);
+                result.downloadFailures = sumMetric(metrics, DOWNLOAD_FAILURES_METRIC) - failuresBefore;
+                report(result, requests, origin, redis);
+                printNodeMetrics(metrics, Pattern.compile(options.getOrDefault("metrics", DEFAULT_METRICS)));
+            } finally {
+                node.destroy();
+                if (!node.waitFor(10, TimeUnit.SECONDS)) {
+                    node.destroyForcibly();
+                }
+            }
+        } finally {
+            if (options.containsKey("keep")) {
+                System.out.println("Node log and cache kept in " + workDir);
+            } else {
+                FileUtils.deleteDirectory(workDir.toFile());
+            }
+        }
+        System.exit(0);
+    }
+
+    private static Process startNode(Map<String, String> options, int port, Path cdnRoot, int originPort, int redisPort,
+                                     File nodeLog
+    ) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder processBuilder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Main.class.getName())
+                .redirectErrorStream(true)
+                .redirectOutput(nodeLog);
+        Map<String, String> env = processBuilder.environment();
+        env.put("PRODUCTION", "false");
+        env.put("PORT", String.valueOf(port));
+        env.put("CDN_ROOT", cdnRoot.toString());
+        env.put("REDIS_HOST", "127.0.0.1");
+        env.put("REDIS_PORT", String.valueOf(redisPort));
+        env.put("ORIGIN_OVERRIDE", "http://127.0.0.1:" + originPort);
+        env.put("AUTH", AUTH);
+        options.forEach((key, value) -> {
+            if (key.startsWith("env.")) {
+                env.put(key.substring(4), value);
+            }
+        });
+        System.out.println("Starting node on port " + port + " (log: " + nodeLog + ")");
+        return processBuilder.start();
+    }
+
+    private static void awaitReady(HttpClient httpClient, String nodeUrl, Process node) throws Exception {
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(nodeUrl + "/ping")).timeout(Duration.ofSeconds(2)).build();
+        while (System.nanoTime() < deadline) {
+            if (!node.isAlive()) {
+                throw new IllegalStateException("Node exited with code " + node.exitValue());
+            }
+            try {
+                if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(250);
+        }
+        throw new IllegalStateException("Node did not become ready within " + STARTUP_TIMEOUT.toSeconds() + "s");
+    }
+
+    private static Result run(HttpClient httpClient, String nodeUrl, List<Workload.Request> requests, int concurrency)
+            throws InterruptedException {
+        Result result = new Result(requests.size());
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < concurrency; i++) {
+            executorService.execute(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < requests.size()) {
+                    Workload.Request request = requests.get(index);
+                    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(nodeUrl + request.getPath()))
+                            .timeout(Duration.ofMinutes(5));
+                    if (request.getOriginalUri() != null) {
+                        builder.header("X-Original-URI", request.getOriginalUri());
+                    }
+
+                    long requestStartNanos = System.nanoTime();
+                    int status;
+                    try {
+                        status = httpClient.send(builder.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+                    } catch (IOException e) {
+                        status = -1;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    result.latencies[index] = System.nanoTime() - requestStartNanos;
+                    result.statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+                }
+            });
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(1, TimeUnit.DAYS);
+        result.durationNanos = System.nanoTime() - startNanos;
+        return result;
+    }
+
+    private static void report(Result result, List<Workload.Request> requests, StubOrigin origin, RedisStub redis) {
+        long[] latencies = result.latencies.clone();
+        Arrays.sort(latencies);
+        Map<Integer, Long> statuses = new TreeMap<>();
+        result.statuses.forEach((status, count) -> statuses.put(status, count.sum()));
+        long failedStatuses = statuses.entrySet().stream().filter(e -> e.getKey() != 200).mapToLong(Map.Entry::getValue).sum();
+        double seconds = result.durationNanos / 1e9;
+
+        Set<String> keys = new HashSet<>();
+        for (Workload.Request request : requests) {
+            keys.add(request.getKey());
+        }
+        long originBytes = origin.getBytes().values().stream().mapToLong(Long::longValue).sum();
+        long originRequests = origin.getRequests().values().stream().mapToLong(Long::longValue).sum();
+
+        System.out.println();
+        // /request answers 200 even if the download failed, so those only show up in the node's failure counter
+        System.out.printf("requests       %d (%d errors: %d non-200 responses, %d failed downloads, status %s)%n",
+                latencies.length, failedStatuses + result.downloadFailures, failedStatuses, result.downloadFailures, statuses);
+        System.out.printf("duration       %.2f s%n", seconds);
+        System.out.printf("throughput     %.1f req/s%n", latencies.length / seconds);
+        System.out.printf("latency ms     p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), percentile(latencies, 1.0));
+        System.out.printf("unique paths   %d (ideal hit ratio %.1f%%)%n", keys.size(),
+                100.0 * (requests.size() - keys.size()) / Math.max(1, requests.size()));
+        System.out.printf("origin         %d requests, %s fetched %s%n", originRequests, formatBytes(originBytes),
+                formatDomains(origin.getBytes()));
+        System.out.printf("downloads      %d paths, %d duplicate downloads%n", origin.getDownloadedPaths(),
+                origin.getDuplicateDownloads());
+        System.out.printf("redis stub     %d commands, %d keys%n", redis.getCommands(), redis.getKeys());
+    }
+
+    private static String fetchMetrics(HttpClient httpClient, String nodeUrl) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(nodeUrl + "/metrics")).build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Unexpected response code " + response.statusCode() + " for node metrics");
+        }
+        return response.body();
+    }
+
+    /*
+     * sums all series of a counter, a counter which has not been incremented yet has no series and sums to 0
+     */
+    private static long sumMetric(String metrics, String name) {
+        double sum = 0;
+        for (String line : metrics.lines().toList()) {
+            if (line.startsWith(name + "{") || line.startsWith(name + " ")) {
+                sum += Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+            }
+        }
+        return Math.round(sum);
+    }
+
+    private static void printNodeMetrics(String metrics, Pattern pattern) {
+        System.out.println();
+        metrics.lines()
+                .filter(line -> pattern.matcher(line).find())
+                .forEach(line -> System.out.println("node           " + line));
+    }
+
+    private static double percentile(long[] sortedNanos, double quantile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))] / 1e6;
+    }
+
+    private static String formatDomains(Map<String, Long> bytes) {
+        List<String> parts = new ArrayList<>();
+        bytes.forEach((domain, value) -> {
+            if (value > 0) {
+                parts.add(domain + " " + formatBytes(value));
+            }
+        });
+        return parts.isEmpty() ? "" : "(" + String.join(", ", parts) + ")";
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format("%.1f %siB", bytes / (double) (1L << (unit * 10)), "KMGTPE".charAt(unit - 1));
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+        return options;
+    }
+
+
+    private static class Result {
+
+        private final long[] latencies;
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        private long durationNanos;
+        private long downloadFailures;
+
+        private Result(int requests) {
+            this.latencies = new long[requests];
+        }
+
+    }
+
+}
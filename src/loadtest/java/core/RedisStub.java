@@ -0,0 +1,189 @@
+package core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * in-memory stand-in for the handful of redis commands the provider issues, speaks RESP2 including pipelining
+ */
+public class RedisStub implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> values = new ConcurrentHashMap<>();
+    private final LongAdder commands = new LongAdder();
+
+    public RedisStub() throws IOException {
+        serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        executorService.execute(this::accept);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getCommands() {
+        return commands.sum();
+    }
+
+    public int getKeys() {
+        return values.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executorService.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executorService.execute(() -> serve(socket));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            List<byte[]> command;
+            while ((command = readCommand(in)) != null) {
+                commands.increment();
+                if (!execute(command, out)) {
+                    break;
+                }
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    private boolean execute(List<byte[]> command, OutputStream out) throws IOException {
+        if (command.isEmpty()) {
+            return true;
+        }
+        String name = new String(command.get(0), StandardCharsets.UTF_8).toUpperCase();
+        switch (name) {
+            case "PING" -> writeSimple(out, "+PONG");
+            case "SELECT", "AUTH", "CLIENT", "FLUSHALL", "FLUSHDB" -> {
+                if (name.startsWith("FLUSH")) {
+                    values.clear();
+                }
+                writeSimple(out, "+OK");
+            }
+            case "QUIT" -> {
+                writeSimple(out, "+OK");
+                return false;
+            }
+            case "SET" -> {
+                values.put(key(command, 1), command.get(2));
+                writeSimple(out, "+OK");
+            }
+            case "GET" -> writeBulk(out, values.get(key(command, 1)));
+            case "MGET" -> {
+                writeSimple(out, "*" + (command.size() - 1));
+                for (int i = 1; i < command.size(); i++) {
+                    writeBulk(out, values.get(key(command, i)));
+                }
+            }
+            case "DEL", "EXISTS" -> {
+                int count = 0;
+                for (int i = 1; i < command.size(); i++) {
+                    String key = key(command, i);
+                    if (name.equals("DEL") ? values.remove(key) != null : values.containsKey(key)) {
+                        count++;
+                    }
+                }
+                writeSimple(out, ":" + count);
+            }
+            case "DBSIZE" -> writeSimple(out, ":" + values.size());
+            default -> writeSimple(out, "-ERR unknown command '" + name + "'");
+        }
+        return true;
+    }
+
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        String line = readLine(in);
+        if (line == null) {
+            return null;
+        }
+        List<byte[]> command = new ArrayList<>();
+        if (!line.startsWith("*")) {
+            for (String part : line.trim().split("\\s+")) {
+                command.add(part.getBytes(StandardCharsets.UTF_8));
+            }
+            return command;
+        }
+
+        int count = Integer.parseInt(line.substring(1));
+        for (int i = 0; i < count; i++) {
+            String header = readLine(in);
+            if (header == null || !header.startsWith("$")) {
+                throw new IOException("Malformed RESP bulk string: " + header);
+            }
+            byte[] value = in.readNBytes(Integer.parseInt(header.substring(1)));
+            in.readNBytes(2);
+            command.add(value);
+        }
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\r') {
+                in.read();
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+        return sb.isEmpty() ? null : sb.toString();
+    }
+
+    private static String key(List<byte[]> command, int index) {
+        return new String(command.get(index), StandardCharsets.UTF_8);
+    }
+
+    private static void writeSimple(OutputStream out, String string) throws IOException {
+        out.write(string.getBytes(StandardCharsets.UTF_8));
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private static void writeBulk(OutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            writeSimple(out, "$-1");
+            return;
+        }
+        writeSimple(out, "$" + value.length);
+        out.write(value);
+        out.write('\r');
+        out.write('\n');
+    }
+
+}
@@ -0,0 +1,194 @@
+package core;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import util.HashUtil;
+import util.StringUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * serves deterministic pseudo-random content for every path with a per-domain size and first-byte latency,
+ * supports ranges so resumed and parallel downloads behave like against the real origins
+ */
+public class StubOrigin implements AutoCloseable {
+
+    public static final List<String> DOMAINS = List.of("rule34", "danbooru", "realbooru", "pixiv");
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final Pattern RANGE_PATTERN = Pattern.compile("^bytes=(\\d+)-(\\d*)$");
+
+    private final HttpServer server;
+    private final Map<String, long[]> sizes = new ConcurrentHashMap<>();
+    private final Map<String, long[]> latencies = new ConcurrentHashMap<>();
+    private final byte[] block = new byte[BLOCK_SIZE * 2];
+    private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> bytes = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> downloads = new ConcurrentHashMap<>();
+
+    public StubOrigin(Map<String, String> options) throws IOException {
+        for (String domain : DOMAINS) {
+            sizes.put(domain, parseRange(options.getOrDefault("size." + domain, options.getOrDefault("size", "1M")), true));
+            latencies.put(domain, parseRange(options.getOrDefault("latency." + domain, options.getOrDefault("latency", "0")), false));
+            requests.put(domain, new LongAdder());
+            bytes.put(domain, new LongAdder());
+        }
+        new Random(0).nextBytes(block);
+        System.arraycopy(block, 0, block, BLOCK_SIZE, BLOCK_SIZE);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public Map<String, Long> getRequests() {
+        Map<String, Long> values = new TreeMap<>();
+        requests.forEach((domain, adder) -> values.put(domain, adder.sum()));
+        return values;
+    }
+
+    public Map<String, Long> getBytes() {
+        Map<String, Long> values = new TreeMap<>();
+        bytes.forEach((domain, adder) -> values.put(domain, adder.sum()));
+        return values;
+    }
+
+    public int getDownloadedPaths() {
+        return downloads.size();
+    }
+
+    /*
+     * transfers that started at offset 0 for a path which had already been fetched once
+     */
+    public long getDuplicateDownloads() {
+        long duplicates = 0;
+        for (AtomicInteger count : downloads.values()) {
+            duplicates += count.get() - 1;
+        }
+        return duplicates;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            String domain = getDomain(exchange.getRequestHeaders().getFirst(OriginOverrideInterceptor.ORIGINAL_HOST_HEADER), path);
+            long pathHash = HashUtil.hash64(path);
+            long length = pick(sizes.get(domain), pathHash);
+            long latency = pick(latencies.get(domain), pathHash >>> 17);
+            requests.get(domain).increment();
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", getContentType(domain, path));
+            headers.set("Accept-Ranges", "bytes");
+            headers.set("ETag", "\"" + Long.toHexString(pathHash) + "-" + length + "\"");
+
+            long start = 0;
+            long end = length - 1;
+            int status = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            Matcher matcher = range != null ? RANGE_PATTERN.matcher(range) : null;
+            if (matcher != null && matcher.matches()) {
+                start = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    end = Math.min(end, Long.parseLong(matcher.group(2)));
+                }
+                if (start >= length || start > end) {
+                    headers.set("Content-Range", "bytes */" + length);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                status = 206;
+                headers.set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            if (start == 0) {
+                downloads.computeIfAbsent(path, k -> new AtomicInteger()).incrementAndGet();
+            }
+            exchange.sendResponseHeaders(status, end - start + 1);
+            writeBody(exchange.getResponseBody(), domain, (int) (pathHash & (BLOCK_SIZE - 1)), start, end + 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    private void writeBody(OutputStream outputStream, String domain, int seed, long start, long end) throws IOException {
+        LongAdder domainBytes = bytes.get(domain);
+        long position = start;
+        while (position < end) {
+            int offset = (int) ((position + seed) % BLOCK_SIZE);
+            int n = (int) Math.min(BLOCK_SIZE, end - position);
+            outputStream.write(block, offset, n);
+            domainBytes.add(n);
+            position += n;
+        }
+    }
+
+    private static String getDomain(String host, String path) {
+        String string = host != null ? host : path;
+        if (string.contains("donmai")) {
+            return "danbooru";
+        } else if (string.contains("realbooru")) {
+            return "realbooru";
+        } else if (string.contains("pximg") || string.contains("pixiv")) {
+            return "pixiv";
+        } else {
+            return "rule34";
+        }
+    }
+
+    private static String getContentType(String domain, String path) {
+        if (domain.equals("pixiv")) {
+            return path.endsWith(".png") ? "image/png" : path.endsWith(".gif") ? "image/gif" : "image/jpeg";
+        }
+        return path.endsWith(".webm") ? "video/webm" : "video/mp4";
+    }
+
+    private static long pick(long[] range, long hash) {
+        if (range[0] == range[1]) {
+            return range[0];
+        }
+        return range[0] + Math.floorMod(hash, range[1] - range[0] + 1);
+    }
+
+    private static long[] parseRange(String string, boolean byteSize) {
+        int dash = string.indexOf('-');
+        String min = dash < 0 ? string : string.substring(0, dash);
+        String max = dash < 0 ? string : string.substring(dash + 1);
+        return byteSize
+                ? new long[] { StringUtil.parseByteSize(min), StringUtil.parseByteSize(max) }
+                : new long[] { Long.parseLong(min.trim()), Long.parseLong(max.trim()) };
+    }
+
+}
@@ -0,0 +1,135 @@
+package core;
+
+import org.json.JSONObject;
+import util.HashUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class Workload {
+
+    /*
+     * zipf workload: --requests, --paths, --zipf (exponent), --mix=rule34:6,danbooru:2,realbooru:1,pixiv:1, --seed
+     * jsonl workload: --workload=<file>, one object per line with either "uri" (sent as X-Original-URI to "endpoint",
+     * default /request) or "path" (requested directly, e.g. /pixiv_download/...), {auth} is replaced by the node's AUTH
+     */
+    public static List<Request> fromOptions(Map<String, String> options, String auth) throws IOException {
+        String workload = options.getOrDefault("workload", "zipf");
+        if (!workload.equals("zipf")) {
+            return readJsonl(Path.of(workload), auth);
+        }
+        return zipf(
+                Integer.parseInt(options.getOrDefault("requests", "10000")),
+                Integer.parseInt(options.getOrDefault("paths", "1000")),
+                Double.parseDouble(options.getOrDefault("zipf", "1.0")),
+                options.getOrDefault("mix", "rule34:1"),
+                Long.parseLong(options.getOrDefault("seed", "0")),
+                auth
+        );
+    }
+
+    public static List<Request> zipf(int requestCount, int pathCount, double exponent, String mix, long seed, String auth) {
+        double[] cdf = new double[pathCount];
+        double sum = 0;
+        for (int i = 0; i < pathCount; i++) {
+            sum += 1.0 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+
+        String[] domains = parseMix(mix);
+        Request[] paths = new Request[pathCount];
+        Random random = new Random(seed);
+        List<Request> requests = new ArrayList<>(requestCount);
+        for (int i = 0; i < requestCount; i++) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            int rank = index >= 0 ? index : Math.min(-index - 1, pathCount - 1);
+            if (paths[rank] == null) {
+                paths[rank] = newRequest(domains[Math.floorMod(HashUtil.mix64(rank + seed), domains.length)], rank, seed, auth);
+            }
+            requests.add(paths[rank]);
+        }
+        return requests;
+    }
+
+    public static List<Request> readJsonl(Path file, String auth) throws IOException {
+        List<Request> requests = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JSONObject json = new JSONObject(line);
+                if (json.has("uri")) {
+                    requests.add(new Request(json.optString("endpoint", "/request"), json.getString("uri")));
+                } else {
+                    requests.add(new Request(json.getString("path").replace("{auth}", auth), null));
+                }
+            }
+        }
+        return requests;
+    }
+
+    private static Request newRequest(String domain, int rank, long seed, String auth) {
+        String hash = String.format("%016x%016x", HashUtil.hash64(domain + rank), HashUtil.mix64(rank ^ seed));
+        return switch (domain) {
+            case "rule34" -> new Request("/request", "/media/rule34/" + (rank / 1000) + "/" + hash + ".mp4");
+            case "danbooru", "realbooru" -> new Request("/request",
+                    "/media/" + domain + "/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash + ".mp4");
+            case "pixiv" -> new Request("/pixiv_download/" +
+                    URLEncoder.encode("https://i.pximg.net/img-original/img/" + hash + "_p0.jpg", StandardCharsets.UTF_8) +
+                    "/" + rank + "/" + auth, null);
+            default -> throw new IllegalArgumentException("Unknown domain: " + domain);
+        };
+    }
+
+    private static String[] parseMix(String mix) {
+        List<String> domains = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] entry = part.trim().split(":");
+            int weight = entry.length > 1 ? Integer.parseInt(entry[1]) : 1;
+            for (int i = 0; i < weight; i++) {
+                domains.add(entry[0]);
+            }
+        }
+        if (domains.isEmpty()) {
+            throw new IllegalArgumentException("Empty domain mix: " + mix);
+        }
+        return domains.toArray(new String[0]);
+    }
+
+
+    public static class Request {
+
+        private final String path;
+        private final String originalUri;
+
+        public Request(String path, String originalUri) {
+            this.path = path;
+            this.originalUri = originalUri;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getOriginalUri() {
+            return originalUri;
+        }
+
+        public String getKey() {
+            return originalUri != null ? originalUri : path;
+        }
+
+    }
+
+}
@@ -0,0 +1,24 @@
+package core;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+public interface AccessTimeStore {
+
+    void write(List<Map.Entry<String, Instant>> entries) throws IOException;
+
+    /*
+     * returns the last access time for every key in the same order, null for unknown keys
+     */
+    List<Instant> read(List<String> keys) throws IOException;
+
+    /*
+     * forgets the keys of deleted files, unknown keys are ignored
+     */
+    void remove(List<String> keys) throws IOException;
+
+    void close();
+
+}
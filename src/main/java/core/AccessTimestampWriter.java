@@ -0,0 +1,91 @@
+package core;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AccessTimestampWriter {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(AccessTimestampWriter.class);
+    private static final long FLUSH_INTERVAL_MILLIS = 250;
+    private static final int BATCH_SIZE = 500;
+
+    private final AccessTimeStore accessTimeStore;
+    private final ConcurrentHashMap<String, Instant> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+
+    public AccessTimestampWriter(AccessTimeStore accessTimeStore) {
+        this.accessTimeStore = accessTimeStore;
+    }
+
+    public void start() {
+        executorService.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+    }
+
+    public void record(String key) {
+        pending.put(key, Instant.now());
+        if (pending.size() >= BATCH_SIZE && flushRequested.compareAndSet(false, true)) {
+            executorService.execute(this::flush);
+        }
+    }
+
+    public int getQueueDepth() {
+        return pending.size();
+    }
+
+    public void flush() {
+        flushLock.lock();
+        try {
+            flushRequested.set(false);
+            List<Map.Entry<String, Instant>> batch = new ArrayList<>(BATCH_SIZE);
+            for (String key : pending.keySet()) {
+                Instant value = pending.remove(key);
+                if (value != null) {
+                    batch.add(Map.entry(key, value));
+                }
+                if (batch.size() >= BATCH_SIZE) {
+                    write(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+        } catch (Throwable e) {
+            LOGGER.error("Error while flushing access timestamps", e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void write(List<Map.Entry<String, Instant>> batch) throws IOException {
+        try {
+            accessTimeStore.write(batch);
+        } catch (Throwable e) {
+            for (Map.Entry<String, Instant> entry : batch) {
+                pending.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            throw e;
+        }
+    }
+
+    private void shutdown() {
+        executorService.shutdown();
+        flush();
+        accessTimeStore.close();
+    }
+
+}
@@ -0,0 +1,213 @@
+package core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public class BlobStore {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(BlobStore.class);
+    private static final String HASH_ATTRIBUTE = "sha256";
+    private static final Metrics.Counter LINKS = Metrics.counter("blob_store_links_total",
+            "Published files by whether their content was new or already stored", "result");
+    private static final Metrics.Counter DELETED = Metrics.counter("blob_store_deleted_total",
+            "Unreferenced blobs deleted", "reason");
+    private static final Metrics.Counter DELETED_BYTES = Metrics.counter("blob_store_deleted_bytes_total",
+            "Bytes freed by deleting unreferenced blobs");
+
+    private final Path root;
+
+    public BlobStore(String cdnRoot) {
+        this.root = Path.of(cdnRoot, "blobs");
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getenv("CONTENT_DEDUP"));
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void update(MessageDigest digest, File file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            long position = 0;
+            while (position < length) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), length - position));
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of file while hashing " + file);
+                }
+                buffer.flip();
+                digest.update(buffer);
+                position += n;
+            }
+        }
+    }
+
+    /*
+     * returns the file that should be published in place of source: source itself if it became a new blob,
+     * or a hard link to the existing blob with identical content
+     */
+    public File link(File source, byte[] sha256) throws IOException {
+        String hash = HexFormat.of().formatHex(sha256);
+        Path blob = getBlobPath(hash);
+        Files.createDirectories(blob.getParent());
+
+        for (int attempt = 0; attempt < 3; attempt++) {
+            if (Files.exists(blob)) {
+                if (Files.size(blob) != source.length()) {
+                    LOGGER.warn("Blob size mismatch for {}, publishing without deduplication", blob);
+                    LINKS.inc("failed");
+                    return source;
+                }
+                Path reference = source.toPath().resolveSibling(source.getName() + ".dedup" + VideoDownloader.PART_SUFFIX);
+                try {
+                    Files.deleteIfExists(reference);
+                    Files.createLink(reference, blob);
+                    LINKS.inc("deduplicated");
+                    return reference.toFile();
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+            }
+
+            try {
+                Files.createLink(blob, source.toPath());
+                writeHash(blob, hash);
+                LINKS.inc("new");
+                return source;
+            } catch (FileAlreadyExistsException e) {
+                // another download published the same content first
+            }
+        }
+        LINKS.inc("failed");
+        return source;
+    }
+
+    /*
+     * deletes a published file and its blob once no other file references it
+     */
+    public boolean delete(Path file) throws IOException {
+        String hash = readHash(file);
+        if (!Files.deleteIfExists(file)) {
+            return false;
+        }
+        if (hash != null) {
+            Path blob = getBlobPath(hash);
+            try {
+                if (getLinkCount(blob) == 1) {
+                    long size = Files.size(blob);
+                    Files.delete(blob);
+                    DELETED.inc("released");
+                    DELETED_BYTES.add(size);
+                }
+            } catch (NoSuchFileException e) {
+                // already collected
+            }
+        }
+        return true;
+    }
+
+    public void collectGarbage() {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+
+        long startMillis = System.currentTimeMillis();
+        long[] counts = new long[3];
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!attrs.isRegularFile()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    counts[0]++;
+                    try {
+                        if (getLinkCount(file) == 1) {
+                            Files.delete(file);
+                            DELETED.inc("collected");
+                            DELETED_BYTES.add(attrs.size());
+                            counts[1]++;
+                            counts[2] += attrs.size();
+                        }
+                    } catch (NoSuchFileException e) {
+                        // deleted concurrently
+                    } catch (IOException e) {
+                        LOGGER.warn("Could not collect blob {}", file, e);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    LOGGER.warn("Blob store could not visit {}", file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (Throwable e) {
+            LOGGER.error("Error in blob store garbage collection", e);
+        }
+        LOGGER.info("Blob store garbage collection completed ({} / {} blobs deleted; {} bytes; {} ms)", counts[1], counts[0],
+                counts[2], System.currentTimeMillis() - startMillis);
+    }
+
+    private Path getBlobPath(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private static int getLinkCount(Path file) throws IOException {
+        return (Integer) Files.getAttribute(file, "unix:nlink");
+    }
+
+    private static void writeHash(Path blob, String hash) {
+        try {
+            UserDefinedFileAttributeView view = Files.getFileAttributeView(blob, UserDefinedFileAttributeView.class);
+            if (view != null) {
+                view.write(HASH_ATTRIBUTE, StandardCharsets.US_ASCII.encode(hash));
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // without the attribute, unreferenced blobs are only freed by collectGarbage()
+        }
+    }
+
+    private static String readHash(Path file) {
+        try {
+            UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+            if (view == null || getLinkCount(file) < 2) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            view.read(HASH_ATTRIBUTE, buffer);
+            buffer.flip();
+            String hash = StandardCharsets.US_ASCII.decode(buffer).toString();
+            return hash.length() == 64 ? hash : null;
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,318 @@
+package core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CacheCleaner {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CacheCleaner.class);
+    private static final Duration VIDEO_CACHE_MAX_AGE = Duration.ofDays(30);
+    private static final Duration PART_FILE_MAX_AGE = Duration.ofDays(1);
+    private static final Duration PROGRESS_INTERVAL = Duration.ofSeconds(30);
+    private static final int BATCH_SIZE = 1000;
+    private static final int MAX_PARALLELISM = 4;
+    private static final Metrics.Counter CLEANER_FILES = Metrics.counter("cache_cleaner_files_total",
+            "Files checked by the cache cleaner", "domain");
+    private static final Metrics.Counter CLEANER_DELETED = Metrics.counter("cache_cleaner_deleted_total",
+            "Files deleted by the cache cleaner", "domain");
+    private static final Metrics.Counter CLEANER_ERRORS = Metrics.counter("cache_cleaner_errors_total",
+            "Cache cleaner errors", "domain");
+    private static final Metrics.Counter CLEANER_RUNS = Metrics.counter("cache_cleaner_runs_total",
+            "Completed cache cleaner runs per domain", "domain");
+
+    private final AccessTimeStore accessTimeStore;
+    private final MediaIndex mediaIndex;
+    private final Path cdnRoot;
+    private final Path rootDir;
+    private final BlobStore blobStore;
+
+    public CacheCleaner(AccessTimeStore accessTimeStore, MediaIndex mediaIndex, String cdnRoot, BlobStore blobStore) {
+        this.accessTimeStore = accessTimeStore;
+        this.mediaIndex = mediaIndex;
+        this.blobStore = blobStore;
+        this.cdnRoot = Path.of(cdnRoot);
+        this.rootDir = this.cdnRoot.resolve("media");
+    }
+
+    public void start() {
+        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+        executorService.scheduleAtFixedRate(this::clean, 0, 1, TimeUnit.DAYS);
+    }
+
+    public void clean() {
+        LOGGER.info("Starting cache cleaner...");
+        cleanMedia();
+        blobStore.collectGarbage();
+    }
+
+    private void cleanMedia() {
+        boolean indexed = mediaIndex.isReady();
+        if (indexed) {
+            cleanFromIndex();
+        }
+
+        List<Path> domainDirs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(rootDir, Files::isDirectory)) {
+            stream.forEach(domainDirs::add);
+        } catch (Throwable e) {
+            LOGGER.error("Error in cache cleaner", e);
+            return;
+        }
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (Path domainDir : domainDirs) {
+            tasks.add(() -> cleanDomain(domainDir, indexed));
+        }
+        runParallel(tasks);
+    }
+
+    private void cleanFromIndex() {
+        Map<String, List<Path>> domainFiles = new HashMap<>();
+        mediaIndex.forEach((path, domain, size, lastAccessMillis, accessCount) -> {
+            if (path.startsWith("media/")) {
+                domainFiles.computeIfAbsent(domain, k -> new ArrayList<>()).add(cdnRoot.resolve(path));
+            }
+        });
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (Map.Entry<String, List<Path>> entry : domainFiles.entrySet()) {
+            tasks.add(() -> {
+                Progress progress = new Progress(entry.getKey());
+                Instant now = Instant.now();
+                try {
+                    List<Path> files = entry.getValue();
+                    for (int i = 0; i < files.size(); i += BATCH_SIZE) {
+                        processBatch(files.subList(i, Math.min(i + BATCH_SIZE, files.size())), now, progress);
+                    }
+                    progress.logCompleted();
+                } catch (Throwable e) {
+                    LOGGER.error("Error in cache cleaner ({})", progress.domain, e);
+                }
+            });
+        }
+        runParallel(tasks);
+    }
+
+    private void runParallel(List<Runnable> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(tasks.size(), MAX_PARALLELISM));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Runnable task : tasks) {
+                futures.add(executorService.submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Throwable e) {
+            LOGGER.error("Error in cache cleaner", e);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /*
+     * with a ready index complete files are checked by cleanFromIndex(), the walk only collects partial files and
+     * complete files missing from the index (e.g. written after the last snapshot before a crash), which get re-indexed
+     */
+    private void cleanDomain(Path domainDir, boolean indexed) {
+        Progress progress = new Progress(domainDir.getFileName().toString());
+        Instant now = Instant.now();
+        List<Path> batch = new ArrayList<>(BATCH_SIZE);
+
+        try {
+            Files.walkFileTree(domainDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && (!indexed || isPartialFile(file) || reindex(file, domainDir, attrs))) {
+                        batch.add(file);
+                        if (batch.size() >= BATCH_SIZE) {
+                            processBatch(batch, now, progress);
+                            batch.clear();
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    LOGGER.warn("Cache cleaner could not visit {}", file, e);
+                    progress.error();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            if (!batch.isEmpty()) {
+                processBatch(batch, now, progress);
+            }
+
+            progress.logCompleted();
+        } catch (Throwable e) {
+            LOGGER.error("Error in cache cleaner ({})", progress.domain, e);
+        }
+    }
+
+    private boolean reindex(Path file, Path domainDir, BasicFileAttributes attrs) {
+        String indexPath = cdnRoot.relativize(file).toString();
+        if (mediaIndex.contains(indexPath)) {
+            return false;
+        }
+        mediaIndex.put(indexPath, domainDir.getFileName().toString(), attrs.size(), attrs.lastModifiedTime().toMillis());
+        LOGGER.info("Re-indexed video missing from the index: {}", file);
+        return true;
+    }
+
+    private void processBatch(List<Path> batch, Instant now, Progress progress) {
+        List<Path> videoFiles = new ArrayList<>(batch.size());
+        for (Path file : batch) {
+            if (isPartialFile(file)) {
+                File partFile = file.toFile();
+                if (now.isAfter(Instant.ofEpochMilli(partFile.lastModified()).plus(PART_FILE_MAX_AGE))) {
+                    delete(file, progress);
+                }
+                progress.fileProcessed();
+            } else if (!Files.exists(file)) {
+                if (mediaIndex.remove(cdnRoot.relativize(file).toString())) {
+                    LOGGER.warn("Removed indexed video that is missing on disk: {}", file);
+                }
+                progress.fileProcessed();
+            } else {
+                videoFiles.add(file);
+            }
+        }
+        if (videoFiles.isEmpty()) {
+            return;
+        }
+
+        List<Instant> accessTimes;
+        try {
+            accessTimes = fetchAccessTimes(videoFiles);
+        } catch (IOException e) {
+            LOGGER.error("Could not fetch access times ({})", progress.domain, e);
+            progress.error();
+            return;
+        }
+        for (int i = 0; i < videoFiles.size(); i++) {
+            Instant accessTime = accessTimes.get(i);
+            Instant videoInstant = accessTime != null ? accessTime.plus(VIDEO_CACHE_MAX_AGE) : Instant.MIN;
+            if (now.isAfter(videoInstant)) {
+                delete(videoFiles.get(i), progress);
+            }
+            progress.fileProcessed();
+        }
+        progress.logIfDue();
+    }
+
+    private List<Instant> fetchAccessTimes(List<Path> files) throws IOException {
+        List<String> keys = new ArrayList<>(files.size());
+        for (Path file : files) {
+            keys.add(getAccessKey(file));
+        }
+        return accessTimeStore.read(keys);
+    }
+
+    private String getAccessKey(Path file) {
+        String key = rootDir.relativize(file).toString();
+        return File.separatorChar == '/' ? key : key.replace(File.separatorChar, '/');
+    }
+
+    private void delete(Path file, Progress progress) {
+        try {
+            if (blobStore.delete(file)) {
+                progress.fileDeleted();
+            }
+        } catch (IOException e) {
+            progress.error();
+            return;
+        }
+        mediaIndex.remove(cdnRoot.relativize(file).toString());
+        if (!isPartialFile(file)) {
+            try {
+                accessTimeStore.remove(List.of(getAccessKey(file)));
+            } catch (IOException e) {
+                LOGGER.warn("Could not remove access time of {}", file, e);
+            }
+        }
+    }
+
+    private boolean isPartialFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(VideoDownloader.PART_SUFFIX) ||
+                name.endsWith(VideoDownloader.PART_SUFFIX + VideoDownloader.META_SUFFIX);
+    }
+
+
+    private static class Progress {
+
+        private final String domain;
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong deleted = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private long lastLogNanos = startNanos;
+
+        public Progress(String domain) {
+            this.domain = domain;
+        }
+
+        public void fileProcessed() {
+            files.incrementAndGet();
+            CLEANER_FILES.inc(domain);
+        }
+
+        public void fileDeleted() {
+            deleted.incrementAndGet();
+            CLEANER_DELETED.inc(domain);
+        }
+
+        public void error() {
+            errors.incrementAndGet();
+            CLEANER_ERRORS.inc(domain);
+        }
+
+        public long getFilesPerSecond() {
+            long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+            return files.get() * 1_000_000_000L / elapsedNanos;
+        }
+
+        public void logCompleted() {
+            CLEANER_RUNS.inc(domain);
+            LOGGER.info("Cache cleaner completed! ({}; {} / {} deleted; {} errors; {} files/s)", domain,
+                    deleted.get(), files.get(), errors.get(), getFilesPerSecond());
+        }
+
+        public void logIfDue() {
+            long nanos = System.nanoTime();
+            if (nanos - lastLogNanos >= PROGRESS_INTERVAL.toNanos()) {
+                lastLogNanos = nanos;
+                LOGGER.info("Cache cleaner progress ({}; {} / {} deleted; {} errors; {} files/s)", domain,
+                        deleted.get(), files.get(), errors.get(), getFilesPerSecond());
+            }
+        }
+
+    }
+
+}
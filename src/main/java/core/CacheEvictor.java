@@ -0,0 +1,190 @@
+package core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.StringUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class CacheEvictor {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CacheEvictor.class);
+    private static final String MAX_BYTES_ENV = "CACHE_MAX_BYTES";
+    private static final Duration EVICTION_INTERVAL = Duration.ofSeconds(10);
+    private static final Duration DECAY_INTERVAL = Duration.ofHours(1);
+    private static final int SAMPLE_SIZE = 16;
+    private static final int MAX_EVICTIONS_PER_RUN = 500;
+
+    private final MediaIndex mediaIndex;
+    private final AccessTimeStore accessTimeStore;
+    private final Path cdnRoot;
+    private final Path rootDir;
+    private final long maxBytes;
+    private final Map<String, Long> domainMaxBytes;
+    private final Policy policy;
+    private final BlobStore blobStore;
+    private final Random random = new Random();
+
+    public CacheEvictor(MediaIndex mediaIndex, AccessTimeStore accessTimeStore, String cdnRoot, BlobStore blobStore) {
+        this.mediaIndex = mediaIndex;
+        this.accessTimeStore = accessTimeStore;
+        this.blobStore = blobStore;
+        this.cdnRoot = Path.of(cdnRoot);
+        this.rootDir = this.cdnRoot.resolve("media");
+        this.maxBytes = System.getenv(MAX_BYTES_ENV) != null ? StringUtil.parseByteSize(System.getenv(MAX_BYTES_ENV)) : 0;
+        this.domainMaxBytes = readDomainMaxBytes();
+        this.policy = "lfu".equalsIgnoreCase(System.getenv("CACHE_EVICTION_POLICY")) ? Policy.LFU : Policy.LRU;
+    }
+
+    public static boolean isConfigured() {
+        return System.getenv(MAX_BYTES_ENV) != null || !readDomainMaxBytes().isEmpty();
+    }
+
+    public void start() {
+        LOGGER.info("Cache evictor started ({}; max {} bytes; domains {})", policy, maxBytes, domainMaxBytes);
+        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+        executorService.scheduleWithFixedDelay(this::evict, EVICTION_INTERVAL.toMillis(), EVICTION_INTERVAL.toMillis(),
+                TimeUnit.MILLISECONDS);
+        if (policy == Policy.LFU) {
+            executorService.scheduleWithFixedDelay(mediaIndex::decayAccessCounts, DECAY_INTERVAL.toMillis(),
+                    DECAY_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void evict() {
+        if (!mediaIndex.isReady()) {
+            return;
+        }
+
+        try {
+            int evictedCount = 0;
+            int errorCount = 0;
+            long evictedBytes = 0;
+            while (evictedCount + errorCount < MAX_EVICTIONS_PER_RUN) {
+                String domain = findDomainOverBudget();
+                if (domain == null && (maxBytes <= 0 || mediaIndex.getTotalSize() <= maxBytes)) {
+                    break;
+                }
+
+                Candidate victim = selectVictim(domain);
+                if (victim == null) {
+                    break;
+                }
+                Path file = cdnRoot.resolve(victim.path);
+                try {
+                    blobStore.delete(file);
+                } catch (IOException e) {
+                    // the entry stays in the index, so the file is sampled again on a later run
+                    LOGGER.warn("Could not evict {}", victim.path, e);
+                    errorCount++;
+                    continue;
+                }
+                mediaIndex.remove(victim.path);
+                removeAccessTime(file);
+                evictedCount++;
+                evictedBytes += victim.size;
+            }
+
+            if (evictedCount > 0 || errorCount > 0) {
+                LOGGER.info("Cache evictor completed ({} files / {} bytes evicted; {} errors; {} bytes cached)",
+                        evictedCount, evictedBytes, errorCount, mediaIndex.getTotalSize());
+            }
+        } catch (Throwable e) {
+            LOGGER.error("Error in cache evictor", e);
+        }
+    }
+
+    private void removeAccessTime(Path file) {
+        if (!file.startsWith(rootDir)) {
+            return;
+        }
+        String key = rootDir.relativize(file).toString();
+        try {
+            accessTimeStore.remove(List.of(File.separatorChar == '/' ? key : key.replace(File.separatorChar, '/')));
+        } catch (IOException e) {
+            LOGGER.warn("Could not remove access time of {}", file, e);
+        }
+    }
+
+    private String findDomainOverBudget() {
+        for (Map.Entry<String, Long> entry : domainMaxBytes.entrySet()) {
+            if (mediaIndex.getTotalSize(entry.getKey()) > entry.getValue()) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private Candidate selectVictim(String domain) {
+        Candidate[] victim = new Candidate[1];
+        mediaIndex.sample(random, SAMPLE_SIZE, domain, (path, entryDomain, size, lastAccessMillis, accessCount) -> {
+            Candidate candidate = new Candidate(path, size, lastAccessMillis, accessCount);
+            if (victim[0] == null || policy.isWorse(candidate, victim[0])) {
+                victim[0] = candidate;
+            }
+        });
+        return victim[0];
+    }
+
+    private static Map<String, Long> readDomainMaxBytes() {
+        HashMap<String, Long> domainMaxBytes = new HashMap<>();
+        for (Map.Entry<String, String> entry : System.getenv().entrySet()) {
+            if (entry.getKey().startsWith(MAX_BYTES_ENV + "_")) {
+                String domain = entry.getKey().substring(MAX_BYTES_ENV.length() + 1).toLowerCase(Locale.ROOT);
+                domainMaxBytes.put(domain, StringUtil.parseByteSize(entry.getValue()));
+            }
+        }
+        return domainMaxBytes;
+    }
+
+
+    private enum Policy {
+
+        LRU {
+            @Override
+            public boolean isWorse(Candidate a, Candidate b) {
+                return a.lastAccessMillis < b.lastAccessMillis;
+            }
+        },
+
+        LFU {
+            @Override
+            public boolean isWorse(Candidate a, Candidate b) {
+                return a.accessCount < b.accessCount ||
+                        (a.accessCount == b.accessCount && a.lastAccessMillis < b.lastAccessMillis);
+            }
+        };
+
+        public abstract boolean isWorse(Candidate a, Candidate b);
+
+    }
+
+
+    private static class Candidate {
+
+        private final String path;
+        private final long size;
+        private final long lastAccessMillis;
+        private final int accessCount;
+
+        public Candidate(String path, long size, long lastAccessMillis, int accessCount) {
+            this.path = path;
+            this.size = size;
+            this.lastAccessMillis = lastAccessMillis;
+            this.accessCount = accessCount;
+        }
+
+    }
+
+}
@@ -0,0 +1,250 @@
+package core;
+
+import okhttp3.Dns;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CachingDns implements Dns {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CachingDns.class);
+    private static final double REFRESH_RATIO = 0.75;
+
+    private final Dns upstream;
+    private final ExecutorService executorService;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final long staleTtlNanos;
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final SingleFlight<String, Entry> lookups = new SingleFlight<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingDns(Dns upstream, ExecutorService executorService, Duration ttl, Duration negativeTtl, Duration staleTtl,
+                      int maxEntries
+    ) {
+        this.upstream = upstream;
+        this.executorService = executorService;
+        this.ttlNanos = ttl.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+        this.staleTtlNanos = staleTtl.toNanos();
+        this.maxEntries = maxEntries;
+    }
+
+    public static CachingDns fromEnv() {
+        return new CachingDns(
+                Dns.SYSTEM,
+                Program.newExecutorService(),
+                Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("DNS_TTL_SECONDS", "60"))),
+                Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("DNS_NEGATIVE_TTL_SECONDS", "10"))),
+                Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("DNS_STALE_TTL_SECONDS", "600"))),
+                Integer.parseInt(System.getenv().getOrDefault("DNS_CACHE_MAX_ENTRIES", "1024"))
+        );
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        long now = System.nanoTime();
+        Entry entry = entries.get(hostname);
+        if (entry != null && now - entry.expiresAtNanos < 0) {
+            if (entry.error != null) {
+                negativeHits.increment();
+                throw copy(entry.error);
+            }
+            hits.increment();
+            if (now - entry.refreshAtNanos >= 0) {
+                refreshAsync(hostname);
+            }
+            return entry.addresses;
+        }
+
+        misses.increment();
+        try {
+            entry = lookups.run(hostname, () -> CompletableFuture.supplyAsync(() -> resolve(hostname, entries.get(hostname)), executorService))
+                    .join();
+        } catch (CompletionException e) {
+            throw asUnknownHostException(hostname, e.getCause());
+        }
+        if (entry.error != null) {
+            throw copy(entry.error);
+        }
+        return entry.addresses;
+    }
+
+    public void invalidate(String hostname) {
+        entries.remove(hostname);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void refreshAsync(String hostname) {
+        if (lookups.get(hostname) != null) {
+            return;
+        }
+        refreshes.increment();
+        lookups.run(hostname, () -> CompletableFuture.supplyAsync(() -> resolve(hostname, entries.get(hostname)), executorService));
+    }
+
+    private Entry resolve(String hostname, Entry previous) {
+        long now = System.nanoTime();
+        Entry entry;
+        try {
+            List<InetAddress> addresses = upstream.lookup(hostname);
+            if (addresses.isEmpty()) {
+                throw new UnknownHostException(hostname);
+            }
+            entry = new Entry(interleaveFamilies(addresses), null, now + ttlNanos, now + (long) (ttlNanos * REFRESH_RATIO),
+                    now + ttlNanos + staleTtlNanos);
+        } catch (Throwable e) {
+            failures.increment();
+            if (previous != null && previous.error == null && now - previous.staleUntilNanos < 0) {
+                LOGGER.warn("DNS lookup failed for {}, serving stale addresses: {}", hostname, e.toString());
+                entry = new Entry(previous.addresses, null, now + negativeTtlNanos, now + negativeTtlNanos, previous.staleUntilNanos);
+            } else {
+                entry = new Entry(null, asUnknownHostException(hostname, e), now + negativeTtlNanos, now + negativeTtlNanos, now);
+            }
+        }
+        entries.put(hostname, entry);
+        if (entries.size() > maxEntries) {
+            evict(now);
+        }
+        return entry;
+    }
+
+    /*
+     * drops entries that can no longer be served, then the ones closest to expiry (negative entries first)
+     */
+    private synchronized void evict(long now) {
+        if (entries.size() <= maxEntries) {
+            return;
+        }
+        entries.entrySet().removeIf(e -> {
+            Entry entry = e.getValue();
+            boolean dead = now - entry.expiresAtNanos >= 0 && (entry.error != null || now - entry.staleUntilNanos >= 0);
+            if (dead) {
+                evictions.increment();
+            }
+            return dead;
+        });
+
+        int excess = entries.size() - maxEntries * 3 / 4;
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<String, Entry>> candidates = new ArrayList<>(entries.entrySet());
+        candidates.sort(Comparator.comparing((Map.Entry<String, Entry> e) -> e.getValue().error == null)
+                .thenComparingLong(e -> e.getValue().expiresAtNanos - now));
+        for (int i = 0; i < excess && i < candidates.size(); i++) {
+            Map.Entry<String, Entry> candidate = candidates.get(i);
+            if (entries.remove(candidate.getKey(), candidate.getValue())) {
+                evictions.increment();
+            }
+        }
+    }
+
+    public static List<InetAddress> interleaveFamilies(List<InetAddress> addresses) {
+        List<InetAddress> ipv6 = new ArrayList<>();
+        List<InetAddress> ipv4 = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            (address instanceof Inet6Address ? ipv6 : ipv4).add(address);
+        }
+        if (ipv6.isEmpty() || ipv4.isEmpty()) {
+            return List.copyOf(addresses);
+        }
+
+        // keeps the resolver's preference by starting with the family of its first address (RFC 8305)
+        List<InetAddress> first = addresses.get(0) instanceof Inet6Address ? ipv6 : ipv4;
+        List<InetAddress> second = first == ipv6 ? ipv4 : ipv6;
+        List<InetAddress> interleaved = new ArrayList<>(addresses.size());
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                interleaved.add(first.get(i));
+            }
+            if (i < second.size()) {
+                interleaved.add(second.get(i));
+            }
+        }
+        return List.copyOf(interleaved);
+    }
+
+    private static UnknownHostException copy(UnknownHostException e) {
+        UnknownHostException copy = new UnknownHostException(e.getMessage());
+        copy.initCause(e.getCause());
+        return copy;
+    }
+
+    private static UnknownHostException asUnknownHostException(String hostname, Throwable e) {
+        if (e instanceof UnknownHostException) {
+            return (UnknownHostException) e;
+        }
+        UnknownHostException unknownHostException = new UnknownHostException(hostname);
+        unknownHostException.initCause(e);
+        return unknownHostException;
+    }
+
+
+    private static class Entry {
+
+        private final List<InetAddress> addresses;
+        private final UnknownHostException error;
+        private final long expiresAtNanos;
+        private final long refreshAtNanos;
+        private final long staleUntilNanos;
+
+        public Entry(List<InetAddress> addresses, UnknownHostException error, long expiresAtNanos, long refreshAtNanos,
+                     long staleUntilNanos
+        ) {
+            this.addresses = addresses;
+            this.error = error;
+            this.expiresAtNanos = expiresAtNanos;
+            this.refreshAtNanos = refreshAtNanos;
+            this.staleUntilNanos = staleUntilNanos;
+        }
+
+    }
+
+}
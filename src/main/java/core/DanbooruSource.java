@@ -0,0 +1,21 @@
+package core;
+
+public class DanbooruSource extends MediaSource {
+
+    public DanbooruSource() {
+        super("danbooru", 2, "cdn");
+    }
+
+    @Override
+    public boolean isValid(String subdomain, String videoDir, String videoFile) {
+        return isSubdomain(subdomain) &&
+                isHexDirs(videoDir) &&
+                isFileName(videoFile, false);
+    }
+
+    @Override
+    public String getVideoUrl(String subdomain, String videoDir, String videoFile) {
+        return "https://" + subdomain + ".donmai.us/original/" + videoDir + "/" + videoFile;
+    }
+
+}
@@ -0,0 +1,48 @@
+package core;
+
+import okhttp3.Call;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class Deadline implements AutoCloseable {
+
+    private final Duration duration;
+    private final HashedWheelTimer.Timeout timeout;
+    private final Queue<Call> calls = new ConcurrentLinkedQueue<>();
+    private volatile boolean expired;
+
+    public Deadline(HashedWheelTimer timer, Duration duration) {
+        this.duration = duration;
+        this.timeout = timer.newTimeout(this::expire, duration);
+    }
+
+    public Call track(Call call) {
+        calls.add(call);
+        if (expired) {
+            call.cancel();
+        }
+        return call;
+    }
+
+    public boolean isExpired() {
+        return expired;
+    }
+
+    public InterruptedIOException newException(String target) {
+        return new InterruptedIOException("Deadline of " + duration.toSeconds() + "s exceeded: " + target);
+    }
+
+    private void expire() {
+        expired = true;
+        calls.forEach(Call::cancel);
+    }
+
+    @Override
+    public void close() {
+        timeout.cancel();
+    }
+
+}
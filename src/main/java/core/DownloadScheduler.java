@@ -0,0 +1,117 @@
+package core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class DownloadScheduler {
+
+    public enum Priority { INTERACTIVE, PREFETCH }
+
+    private final ExecutorService executorService;
+    private final int maxPrefetches;
+    private final int maxQueueSize;
+    private final LinkedHashMap<String, Runnable> prefetchQueue = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private int runningPrefetches = 0;
+
+    public DownloadScheduler(ExecutorService executorService, int maxPrefetches, int maxQueueSize) {
+        this.executorService = executorService;
+        this.maxPrefetches = maxPrefetches;
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    public boolean submit(String key, Priority priority, Runnable task) {
+        if (priority == Priority.INTERACTIVE) {
+            executorService.execute(task);
+            return true;
+        }
+
+        lock.lock();
+        try {
+            if (prefetchQueue.size() >= maxQueueSize) {
+                return false;
+            }
+            prefetchQueue.put(key, task);
+        } finally {
+            lock.unlock();
+        }
+        dispatch();
+        return true;
+    }
+
+    public void promote(String key) {
+        Runnable task;
+        lock.lock();
+        try {
+            task = prefetchQueue.remove(key);
+        } finally {
+            lock.unlock();
+        }
+        if (task != null) {
+            executorService.execute(task);
+        }
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return prefetchQueue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getRunningPrefetches() {
+        lock.lock();
+        try {
+            return runningPrefetches;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatch() {
+        while (true) {
+            Runnable task;
+            lock.lock();
+            try {
+                if (runningPrefetches >= maxPrefetches || prefetchQueue.isEmpty()) {
+                    return;
+                }
+                Iterator<Map.Entry<String, Runnable>> iterator = prefetchQueue.entrySet().iterator();
+                task = iterator.next().getValue();
+                iterator.remove();
+                runningPrefetches++;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                executorService.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        onPrefetchDone();
+                    }
+                });
+            } catch (Throwable e) {
+                onPrefetchDone();
+                throw e;
+            }
+        }
+    }
+
+    private void onPrefetchDone() {
+        lock.lock();
+        try {
+            runningPrefetches--;
+        } finally {
+            lock.unlock();
+        }
+        dispatch();
+    }
+
+}
@@ -0,0 +1,155 @@
+package core;
+
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+public class FileResponder {
+
+    public static Response respond(File file, String mediaType, HttpHeaders requestHeaders) {
+        long length = file.length();
+        long lastModifiedSeconds = file.lastModified() / 1000;
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModifiedSeconds) + "\"";
+        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochSecond(lastModifiedSeconds).atOffset(ZoneOffset.UTC));
+
+        if (isNotModified(requestHeaders, etag, lastModifiedSeconds)) {
+            return Response.notModified()
+                    .header(HttpHeaders.ETAG, etag)
+                    .header(HttpHeaders.LAST_MODIFIED, lastModified)
+                    .build();
+        }
+
+        long start = 0;
+        long end = length - 1;
+        Response.ResponseBuilder responseBuilder;
+        String range = requestHeaders.getHeaderString("Range");
+        String ifRange = requestHeaders.getHeaderString("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag) || ifRange.equals(lastModified))) {
+            long[] byteRange = parseRange(range, length);
+            if (byteRange == null) {
+                return Response.status(416)
+                        .header("Content-Range", "bytes */" + length)
+                        .build();
+            }
+            if (byteRange.length == 2) {
+                start = byteRange[0];
+                end = byteRange[1];
+                responseBuilder = Response.status(206)
+                        .header("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            } else {
+                responseBuilder = Response.ok();
+            }
+        } else {
+            responseBuilder = Response.ok();
+        }
+
+        long position = start;
+        long count = end - start + 1;
+        StreamingOutput output = outputStream -> {
+            try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(outputStream);
+                long transferred = 0;
+                while (transferred < count) {
+                    long n = fileChannel.transferTo(position + transferred, count - transferred, target);
+                    if (n <= 0) {
+                        break;
+                    }
+                    transferred += n;
+                }
+            }
+        };
+        return responseBuilder
+                .entity(output)
+                .type(mediaType)
+                .header(HttpHeaders.CONTENT_LENGTH, count)
+                .header("Accept-Ranges", "bytes")
+                .header(HttpHeaders.ETAG, etag)
+                .header(HttpHeaders.LAST_MODIFIED, lastModified)
+                .build();
+    }
+
+    private static boolean isNotModified(HttpHeaders requestHeaders, String etag, long lastModifiedSeconds) {
+        String ifNoneMatch = requestHeaders.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals("*") || candidate.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String ifModifiedSince = requestHeaders.getHeaderString(HttpHeaders.IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null) {
+            try {
+                long sinceSeconds = DateTimeFormatter.RFC_1123_DATE_TIME.parse(ifModifiedSince, Instant::from).getEpochSecond();
+                return lastModifiedSeconds <= sinceSeconds;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * returns {start, end} for a satisfiable single range, an empty array if the header should be ignored
+     * and null if the range cannot be satisfied
+     */
+    public static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return new long[0];
+        }
+
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                long suffixLength = Long.parseLong(last);
+                if (suffixLength <= 0 || length == 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffixLength);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = length - 1;
+                if (!last.isEmpty()) {
+                    long lastPosition = Long.parseLong(last);
+                    if (lastPosition < start) {
+                        // syntactically invalid, RFC 9110 says to ignore the header
+                        return new long[0];
+                    }
+                    end = Math.min(lastPosition, end);
+                }
+                if (start >= length) {
+                    return null;
+                }
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+}
@@ -0,0 +1,250 @@
+package core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+public class GrowingFile {
+
+    private final File file;
+    private final CompletableFuture<File> completion = new CompletableFuture<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private File partFile;
+    private long length;
+    private long expectedLength = -1;
+    private boolean complete;
+    private IOException error;
+
+    public GrowingFile(File file, File partFile) {
+        this.file = file;
+        this.partFile = partFile;
+    }
+
+    public static GrowingFile completed(File file) {
+        GrowingFile growingFile = new GrowingFile(file, null);
+        growingFile.length = file.length();
+        growingFile.expectedLength = growingFile.length;
+        growingFile.complete = true;
+        growingFile.completion.complete(file);
+        return growingFile;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public CompletableFuture<File> getCompletion() {
+        return completion;
+    }
+
+    public File getPartFile() {
+        lock.lock();
+        try {
+            return partFile;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void append(long bytes) {
+        lock.lock();
+        try {
+            length += bytes;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setExpectedLength(long expectedLength) {
+        lock.lock();
+        try {
+            this.expectedLength = expectedLength;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * returns the final size once the origin announced it, or -1 if it is still unknown after the timeout
+     */
+    public long awaitExpectedLength(long timeout, TimeUnit unit) throws InterruptedException {
+        long remainingNanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (expectedLength < 0 && !complete && error == null && remainingNanos > 0) {
+                remainingNanos = changed.awaitNanos(remainingNanos);
+            }
+            return complete ? length : expectedLength;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void advanceTo(long length) {
+        lock.lock();
+        try {
+            if (length > this.length) {
+                this.length = length;
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * called before the part file is truncated to restart the download, readers wait until it grows back
+     */
+    public void reset() {
+        lock.lock();
+        try {
+            length = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void publish(Consumer<File> onPublished) throws IOException {
+        publish(getPartFile(), onPublished);
+    }
+
+    public void publish(File source, Consumer<File> onPublished) throws IOException {
+        lock.lock();
+        try {
+            Files.move(source.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (!source.equals(partFile)) {
+                Files.deleteIfExists(partFile.toPath());
+            }
+            partFile = null;
+            length = file.length();
+            complete = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        onPublished.accept(file);
+        completion.complete(file);
+    }
+
+    public void fail(IOException e) {
+        lock.lock();
+        try {
+            error = e;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        completion.completeExceptionally(e);
+    }
+
+    public boolean isComplete() {
+        lock.lock();
+        try {
+            return complete;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long awaitLength(long position) throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            while (length <= position && !complete && error == null) {
+                changed.await();
+            }
+            if (error != null) {
+                throw new IOException("Download failed: " + file, error);
+            }
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public InputStream openStream() {
+        return new Reader(0);
+    }
+
+    public InputStream openStream(long position) {
+        return new Reader(position);
+    }
+
+    private RandomAccessFile openReadableFile() throws IOException {
+        lock.lock();
+        try {
+            return new RandomAccessFile(partFile != null ? partFile : file, "r");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    private class Reader extends InputStream {
+
+        private RandomAccessFile randomAccessFile;
+        private long position;
+
+        private Reader(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            int n = read(buffer, 0, 1);
+            return n == -1 ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            while (true) {
+                long available;
+                try {
+                    available = awaitLength(position);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                if (position >= available) {
+                    return -1;
+                }
+
+                if (randomAccessFile == null) {
+                    randomAccessFile = openReadableFile();
+                }
+                randomAccessFile.seek(position);
+                int n = randomAccessFile.read(b, off, (int) Math.min(len, available - position));
+                if (n != -1) {
+                    position += n;
+                    return n;
+                }
+                // the part file was truncated by a restarted download
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (randomAccessFile != null) {
+                randomAccessFile.close();
+            }
+        }
+
+    }
+
+}
@@ -1,13 +1,16 @@
 package core;
 
+import java.io.IOException;
 import java.net.URI;
 import jakarta.ws.rs.core.UriBuilder;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 
 public class Main {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
         Program.init();
         ResourceConfig rc = new ResourceConfig(RestService.class);
 
@@ -16,7 +19,16 @@ public class Main {
                 .port(Integer.parseInt(System.getenv("PORT")))
                 .build();
 
-        GrizzlyHttpServerFactory.createHttpServer(endpoint, rc);
+        HttpServer server = GrizzlyHttpServerFactory.createHttpServer(endpoint, rc, false);
+        if (Program.isVirtualThreadsEnabled()) {
+            for (NetworkListener listener : server.getListeners()) {
+                listener.getTransport().setWorkerThreadPool(Program.newExecutorService());
+            }
+        }
+        server.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdownNow));
+        Thread.currentThread().join();
     }
 
 }
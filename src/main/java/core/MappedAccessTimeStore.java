@@ -0,0 +1,390 @@
+package core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.HashUtil;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+/*
+ * append-only log of (key, access time) records in a memory-mapped file with an in-memory hash index,
+ * keys without a record report the creation time of the log so switching from redis keeps existing files for a full cycle,
+ * removed keys are logged as tombstones which are dropped together with the records they shadow on compaction
+ */
+public class MappedAccessTimeStore implements AccessTimeStore {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(MappedAccessTimeStore.class);
+    private static final int MAGIC = 0x41544C47;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 14;
+    private static final long TOMBSTONE = Long.MIN_VALUE;
+    private static final int INITIAL_MAP_SIZE = 16 * 1024 * 1024;
+    private static final long MIN_COMPACTION_BYTES = 4L * 1024 * 1024;
+    private static final int INITIAL_CAPACITY = 1 << 14;
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final Metrics.Counter COMPACTIONS = Metrics.counter("access_store_compactions_total",
+            "Compactions of the embedded access time log");
+
+    private final Path file;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long createdMillis;
+    private int size;
+    private long liveBytes;
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private long[] accessMillis = new long[INITIAL_CAPACITY];
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int count = 0;
+
+    public MappedAccessTimeStore(Path file, Duration compactionInterval) throws IOException {
+        this.file = file;
+        open();
+        executorService.scheduleWithFixedDelay(this::maintain, compactionInterval.toMillis(), compactionInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    public static MappedAccessTimeStore fromEnv(String cdnRoot) throws IOException {
+        return new MappedAccessTimeStore(
+                Path.of(System.getenv().getOrDefault("ACCESS_STORE_PATH", Path.of(cdnRoot, "access-times.log").toString())),
+                Duration.ofMinutes(Long.parseLong(System.getenv().getOrDefault("ACCESS_STORE_COMPACTION_MINUTES", "10")))
+        );
+    }
+
+    @Override
+    public void write(List<Map.Entry<String, Instant>> entries) throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Instant> entry : entries) {
+                byte[] keyBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                if (keyBytes.length == 0 || keyBytes.length > Short.MAX_VALUE) {
+                    LOGGER.warn("Skipping invalid access time key: {}", entry.getKey());
+                    continue;
+                }
+
+                long millis = entry.getValue().toEpochMilli();
+                int offset = append(keyBytes, millis);
+                index(hash(entry.getKey()), millis, offset, RECORD_HEADER_SIZE + keyBytes.length);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(List<String> keys) throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (String key : keys) {
+                long hash = hash(key);
+                if (hashes[findSlot(hash)] != hash) {
+                    continue;
+                }
+
+                append(key.getBytes(StandardCharsets.UTF_8), TOMBSTONE);
+                unindex(hash);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Instant> read(List<String> keys) {
+        List<Instant> values = new ArrayList<>(keys.size());
+        lock.readLock().lock();
+        try {
+            for (String key : keys) {
+                long hash = hash(key);
+                int slot = findSlot(hash);
+                values.add(Instant.ofEpochMilli(hashes[slot] == hash ? accessMillis[slot] : createdMillis));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return values;
+    }
+
+    public int getCount() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getLogSize() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdown();
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.error("Could not close access time log {}", file, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void open() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long fileSize = channel.size();
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("Access time log too large: " + file);
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_MAP_SIZE, fileSize));
+
+        if (fileSize < HEADER_SIZE || buffer.getInt(0) == 0) {
+            createdMillis = System.currentTimeMillis();
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, createdMillis);
+            size = HEADER_SIZE;
+            return;
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Invalid access time log: " + file);
+        }
+
+        long startMillis = System.currentTimeMillis();
+        createdMillis = buffer.getLong(8);
+        size = HEADER_SIZE;
+        byte[] keyBytes = new byte[Short.MAX_VALUE];
+        while (size + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int keyLength = buffer.getShort(size);
+            if (keyLength <= 0 || size + RECORD_HEADER_SIZE + keyLength > buffer.capacity()) {
+                break;
+            }
+            long millis = buffer.getLong(size + 2);
+            buffer.get(size + RECORD_HEADER_SIZE, keyBytes, 0, keyLength);
+            if (buffer.getInt(size + 10) != checksum(keyBytes, keyLength, millis)) {
+                LOGGER.warn("Corrupt record in access time log {} at {}, dropping the remainder", file, size);
+                for (int i = size; i < buffer.capacity(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                break;
+            }
+            long hash = hash(new String(keyBytes, 0, keyLength, StandardCharsets.UTF_8));
+            if (millis == TOMBSTONE) {
+                unindex(hash);
+            } else {
+                index(hash, millis, size, RECORD_HEADER_SIZE + keyLength);
+            }
+            size += RECORD_HEADER_SIZE + keyLength;
+        }
+        LOGGER.info("Access time log loaded ({} keys; {} bytes; {} ms)", count, size, System.currentTimeMillis() - startMillis);
+    }
+
+    private void maintain() {
+        lock.writeLock().lock();
+        try {
+            if (getGarbageBytes() > Math.max(liveBytes, MIN_COMPACTION_BYTES)) {
+                compact();
+            }
+            buffer.force();
+        } catch (Throwable e) {
+            LOGGER.error("Error in access time log maintenance", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureCapacity(int recordSize) throws IOException {
+        if ((long) size + recordSize <= buffer.capacity()) {
+            return;
+        }
+        if (getGarbageBytes() > liveBytes) {
+            compact();
+            if ((long) size + recordSize <= buffer.capacity()) {
+                return;
+            }
+        }
+        remap((long) size + recordSize);
+    }
+
+    private void compact() throws IOException {
+        long startMillis = System.currentTimeMillis();
+        int oldSize = size;
+        Path tempFile = file.resolveSibling(file.getFileName() + ".compact");
+        int[] newOffsets = new int[offsets.length];
+        int position = HEADER_SIZE;
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)
+        ) {
+            MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + liveBytes);
+            target.putInt(0, MAGIC);
+            target.putInt(4, VERSION);
+            target.putLong(8, createdMillis);
+            for (int slot = 0; slot < hashes.length; slot++) {
+                if (hashes[slot] != 0) {
+                    int recordSize = getRecordSize(offsets[slot]);
+                    target.put(position, buffer, offsets[slot], recordSize);
+                    newOffsets[slot] = position;
+                    position += recordSize;
+                }
+            }
+            target.force();
+        }
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        channel.close();
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        offsets = newOffsets;
+        size = position;
+        remap(Math.max(INITIAL_MAP_SIZE, (long) position * 2));
+        COMPACTIONS.inc();
+        LOGGER.info("Access time log compacted ({} -> {} bytes; {} keys; {} ms)", oldSize, size, count,
+                System.currentTimeMillis() - startMillis);
+    }
+
+    private void remap(long requiredSize) throws IOException {
+        long mapSize = Math.max(buffer != null ? buffer.capacity() : 0, INITIAL_MAP_SIZE);
+        while (mapSize < requiredSize) {
+            mapSize *= 2;
+        }
+        mapSize = Math.min(mapSize, Integer.MAX_VALUE);
+        if (mapSize < requiredSize) {
+            throw new IOException("Access time log exceeds the maximum mapping size: " + file);
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, mapSize);
+    }
+
+    private long getGarbageBytes() {
+        return size - HEADER_SIZE - liveBytes;
+    }
+
+    private int getRecordSize(int offset) {
+        return RECORD_HEADER_SIZE + buffer.getShort(offset);
+    }
+
+    private int append(byte[] keyBytes, long millis) throws IOException {
+        int recordSize = RECORD_HEADER_SIZE + keyBytes.length;
+        ensureCapacity(recordSize);
+        int offset = size;
+        buffer.putLong(offset + 2, millis);
+        buffer.putInt(offset + 10, checksum(keyBytes, keyBytes.length, millis));
+        buffer.put(offset + RECORD_HEADER_SIZE, keyBytes);
+        buffer.putShort(offset, (short) keyBytes.length);
+        size += recordSize;
+        return offset;
+    }
+
+    private void index(long hash, long millis, int offset, int recordSize) {
+        int slot = findSlot(hash);
+        if (hashes[slot] == hash) {
+            liveBytes -= getRecordSize(offsets[slot]);
+        } else {
+            if (count + 1 > hashes.length * LOAD_FACTOR) {
+                resize(hashes.length * 2);
+                slot = findSlot(hash);
+            }
+            hashes[slot] = hash;
+            count++;
+        }
+        accessMillis[slot] = millis;
+        offsets[slot] = offset;
+        liveBytes += recordSize;
+    }
+
+    /*
+     * backward shift deletion, moves later entries of the probe sequence into the hole so lookups never stop early
+     */
+    private void unindex(long hash) {
+        int mask = hashes.length - 1;
+        int hole = findSlot(hash);
+        if (hashes[hole] != hash) {
+            return;
+        }
+        liveBytes -= getRecordSize(offsets[hole]);
+        count--;
+
+        for (int slot = (hole + 1) & mask; hashes[slot] != 0; slot = (slot + 1) & mask) {
+            int home = (int) hashes[slot] & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                hashes[hole] = hashes[slot];
+                accessMillis[hole] = accessMillis[slot];
+                offsets[hole] = offsets[slot];
+                hole = slot;
+            }
+        }
+        hashes[hole] = 0;
+        accessMillis[hole] = 0;
+        offsets[hole] = 0;
+    }
+
+    private int findSlot(long hash) {
+        int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+        while (hashes[slot] != 0 && hashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        long[] oldHashes = hashes;
+        long[] oldAccessMillis = accessMillis;
+        int[] oldOffsets = offsets;
+
+        hashes = new long[capacity];
+        accessMillis = new long[capacity];
+        offsets = new int[capacity];
+        for (int oldSlot = 0; oldSlot < oldHashes.length; oldSlot++) {
+            if (oldHashes[oldSlot] != 0) {
+                int slot = findSlot(oldHashes[oldSlot]);
+                hashes[slot] = oldHashes[oldSlot];
+                accessMillis[slot] = oldAccessMillis[oldSlot];
+                offsets[slot] = oldOffsets[oldSlot];
+            }
+        }
+    }
+
+    private static long hash(String key) {
+        long hash = HashUtil.hash64(key);
+        return hash != 0 ? hash : 1;
+    }
+
+    private static int checksum(byte[] keyBytes, int keyLength, long millis) {
+        CRC32C crc = new CRC32C();
+        crc.update(keyBytes, 0, keyLength);
+        for (int i = 0; i < Long.BYTES; i++) {
+            crc.update((int) (millis >>> (i * 8)));
+        }
+        return (int) crc.getValue();
+    }
+
+}
@@ -0,0 +1,464 @@
+package core;
+
+import util.HashUtil;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class MediaIndex {
+
+    private static final int MAGIC = 0x4D494458;
+    private static final int VERSION = 2;
+    private static final int INITIAL_CAPACITY = 1 << 14;
+    private static final int MAX_DOMAINS = 256;
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<String> domains = new ArrayList<>();
+    private final long[] domainSizes = new long[MAX_DOMAINS];
+    private final int[] domainCounts = new int[MAX_DOMAINS];
+
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private long[] sizes = new long[INITIAL_CAPACITY];
+    private int[] lastAccesses = new int[INITIAL_CAPACITY];
+    private int[] accessCounts = new int[INITIAL_CAPACITY];
+    private int[] pathOffsets = new int[INITIAL_CAPACITY];
+    private short[] pathLengths = new short[INITIAL_CAPACITY];
+    private byte[] domainIds = new byte[INITIAL_CAPACITY];
+    private byte[] pathPool = new byte[INITIAL_CAPACITY * 32];
+    private int pathPoolSize = 0;
+    private int pathPoolGarbage = 0;
+    private int count = 0;
+    private long totalSize = 0;
+    private volatile boolean ready = false;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void setReady() {
+        ready = true;
+    }
+
+    public void put(String path, String domain, long size, long lastAccessMillis) {
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(path);
+        lock.writeLock().lock();
+        try {
+            int domainId = getOrCreateDomainId(domain);
+            int slot = findSlot(hash);
+            if (hashes[slot] == hash) {
+                removeSizes(slot);
+            } else {
+                if (count + 1 > hashes.length * LOAD_FACTOR) {
+                    resize(hashes.length * 2);
+                    slot = findSlot(hash);
+                }
+                hashes[slot] = hash;
+                pathOffsets[slot] = appendPath(pathBytes);
+                pathLengths[slot] = (short) pathBytes.length;
+                accessCounts[slot] = 1;
+                count++;
+            }
+            sizes[slot] = size;
+            lastAccesses[slot] = toSeconds(lastAccessMillis);
+            domainIds[slot] = (byte) domainId;
+            totalSize += size;
+            domainSizes[domainId] += size;
+            domainCounts[domainId]++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(String path) {
+        long hash = hash(path);
+        lock.readLock().lock();
+        try {
+            return hashes[findSlot(hash)] == hash;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * runs on every hit, so it only takes the read lock: slots never move while it is held and the access fields are
+     * written atomically, an increment lost to a concurrent touch of the same entry is acceptable for the counter
+     */
+    public void touch(String path, long lastAccessMillis) {
+        long hash = hash(path);
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(hash);
+            if (hashes[slot] == hash) {
+                INTS.setVolatile(lastAccesses, slot, toSeconds(lastAccessMillis));
+                int accessCount = (int) INTS.getVolatile(accessCounts, slot);
+                if (accessCount < Integer.MAX_VALUE) {
+                    INTS.compareAndSet(accessCounts, slot, accessCount, accessCount + 1);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean remove(String path) {
+        long hash = hash(path);
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(hash);
+            if (hashes[slot] != hash) {
+                return false;
+            }
+
+            removeSizes(slot);
+            pathPoolGarbage += pathLengths[slot];
+            count--;
+            deleteSlot(slot);
+            if (pathPoolGarbage > pathPoolSize / 2 && pathPoolGarbage > 1 << 20) {
+                resize(hashes.length);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getTotalSize() {
+        lock.readLock().lock();
+        try {
+            return totalSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getTotalSize(String domain) {
+        lock.readLock().lock();
+        try {
+            int domainId = domains.indexOf(domain);
+            return domainId >= 0 ? domainSizes[domainId] : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getCount(String domain) {
+        lock.readLock().lock();
+        try {
+            int domainId = domains.indexOf(domain);
+            return domainId >= 0 ? domainCounts[domainId] : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<String> getDomains() {
+        lock.readLock().lock();
+        try {
+            return List.copyOf(domains);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void forEach(EntryVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < hashes.length; slot++) {
+                if (hashes[slot] != 0) {
+                    visit(slot, visitor);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int sample(Random random, int sampleSize, String domain, EntryVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            int domainId = domain != null ? domains.indexOf(domain) : -1;
+            if (count == 0 || (domain != null && (domainId < 0 || domainCounts[domainId] == 0))) {
+                return 0;
+            }
+
+            int mask = hashes.length - 1;
+            int sampled = 0;
+            for (int attempt = 0; attempt < sampleSize * 4 && sampled < sampleSize; attempt++) {
+                int slot = random.nextInt(hashes.length);
+                for (int i = 0; i < hashes.length && hashes[slot] == 0; i++) {
+                    slot = (slot + 1) & mask;
+                }
+                if (hashes[slot] != 0 && (domainId < 0 || (domainIds[slot] & 0xFF) == domainId)) {
+                    visit(slot, visitor);
+                    sampled++;
+                }
+            }
+            return sampled;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void decayAccessCounts() {
+        lock.writeLock().lock();
+        try {
+            for (int slot = 0; slot < hashes.length; slot++) {
+                accessCounts[slot] >>>= 1;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void save(Path file) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        lock.readLock().lock();
+        try {
+            long fileSize = 16;
+            for (String domain : domains) {
+                fileSize += 2 + domain.getBytes(StandardCharsets.UTF_8).length;
+            }
+            for (int slot = 0; slot < hashes.length; slot++) {
+                if (hashes[slot] != 0) {
+                    fileSize += 27 + pathLengths[slot];
+                }
+            }
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Media index snapshot too large: " + fileSize + " bytes");
+            }
+
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)
+            ) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+                buffer.putInt(MAGIC);
+                buffer.putInt(VERSION);
+                buffer.putInt(domains.size());
+                for (String domain : domains) {
+                    byte[] domainBytes = domain.getBytes(StandardCharsets.UTF_8);
+                    buffer.putShort((short) domainBytes.length);
+                    buffer.put(domainBytes);
+                }
+                buffer.putInt(count);
+                for (int slot = 0; slot < hashes.length; slot++) {
+                    if (hashes[slot] != 0) {
+                        buffer.putLong(hashes[slot]);
+                        buffer.putLong(sizes[slot]);
+                        buffer.putInt(lastAccesses[slot]);
+                        buffer.putInt(accessCounts[slot]);
+                        buffer.put(domainIds[slot]);
+                        buffer.putShort(pathLengths[slot]);
+                        buffer.put(pathPool, pathOffsets[slot], pathLengths[slot]);
+                    }
+                }
+                buffer.force();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static MediaIndex load(Path file) throws IOException {
+        MediaIndex mediaIndex = new MediaIndex();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int version;
+            if (buffer.getInt() != MAGIC || (version = buffer.getInt()) < 1 || version > VERSION) {
+                throw new IOException("Invalid media index snapshot: " + file);
+            }
+
+            int domainCount = buffer.getInt();
+            for (int i = 0; i < domainCount; i++) {
+                byte[] domainBytes = new byte[buffer.getShort()];
+                buffer.get(domainBytes);
+                mediaIndex.domains.add(new String(domainBytes, StandardCharsets.UTF_8));
+            }
+
+            int count = buffer.getInt();
+            int capacity = INITIAL_CAPACITY;
+            while (count > capacity * LOAD_FACTOR) {
+                capacity *= 2;
+            }
+            mediaIndex.resize(capacity);
+
+            byte[] pathBytes = new byte[Short.MAX_VALUE];
+            for (int i = 0; i < count; i++) {
+                long hash = buffer.getLong();
+                long size = buffer.getLong();
+                int lastAccess = buffer.getInt();
+                int accessCount = version >= 2 ? buffer.getInt() : 1;
+                byte domainId = buffer.get();
+                short pathLength = buffer.getShort();
+                buffer.get(pathBytes, 0, pathLength);
+
+                int slot = mediaIndex.findSlot(hash);
+                mediaIndex.hashes[slot] = hash;
+                mediaIndex.sizes[slot] = size;
+                mediaIndex.lastAccesses[slot] = lastAccess;
+                mediaIndex.accessCounts[slot] = accessCount;
+                mediaIndex.domainIds[slot] = domainId;
+                mediaIndex.pathOffsets[slot] = mediaIndex.appendPath(pathBytes, 0, pathLength);
+                mediaIndex.pathLengths[slot] = pathLength;
+                mediaIndex.count++;
+                mediaIndex.totalSize += size;
+                mediaIndex.domainSizes[domainId & 0xFF] += size;
+                mediaIndex.domainCounts[domainId & 0xFF]++;
+            }
+        }
+        return mediaIndex;
+    }
+
+    private int findSlot(long hash) {
+        int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+        while (hashes[slot] != 0 && hashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void deleteSlot(int slot) {
+        int mask = hashes.length - 1;
+        int gap = slot;
+        int next = (slot + 1) & mask;
+        while (hashes[next] != 0) {
+            int home = (int) hashes[next] & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                moveSlot(next, gap);
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        hashes[gap] = 0;
+    }
+
+    private void moveSlot(int from, int to) {
+        hashes[to] = hashes[from];
+        sizes[to] = sizes[from];
+        lastAccesses[to] = lastAccesses[from];
+        accessCounts[to] = accessCounts[from];
+        pathOffsets[to] = pathOffsets[from];
+        pathLengths[to] = pathLengths[from];
+        domainIds[to] = domainIds[from];
+    }
+
+    private void resize(int capacity) {
+        long[] oldHashes = hashes;
+        long[] oldSizes = sizes;
+        int[] oldLastAccesses = lastAccesses;
+        int[] oldAccessCounts = accessCounts;
+        int[] oldPathOffsets = pathOffsets;
+        short[] oldPathLengths = pathLengths;
+        byte[] oldDomainIds = domainIds;
+        byte[] oldPathPool = pathPool;
+
+        hashes = new long[capacity];
+        sizes = new long[capacity];
+        lastAccesses = new int[capacity];
+        accessCounts = new int[capacity];
+        pathOffsets = new int[capacity];
+        pathLengths = new short[capacity];
+        domainIds = new byte[capacity];
+        pathPool = new byte[Math.max(pathPoolSize - pathPoolGarbage, capacity * 32)];
+        pathPoolSize = 0;
+        pathPoolGarbage = 0;
+
+        for (int oldSlot = 0; oldSlot < oldHashes.length; oldSlot++) {
+            if (oldHashes[oldSlot] != 0) {
+                int slot = findSlot(oldHashes[oldSlot]);
+                hashes[slot] = oldHashes[oldSlot];
+                sizes[slot] = oldSizes[oldSlot];
+                lastAccesses[slot] = oldLastAccesses[oldSlot];
+                accessCounts[slot] = oldAccessCounts[oldSlot];
+                domainIds[slot] = oldDomainIds[oldSlot];
+                pathLengths[slot] = oldPathLengths[oldSlot];
+                pathOffsets[slot] = appendPath(oldPathPool, oldPathOffsets[oldSlot], oldPathLengths[oldSlot]);
+            }
+        }
+    }
+
+    private int appendPath(byte[] pathBytes) {
+        return appendPath(pathBytes, 0, pathBytes.length);
+    }
+
+    private int appendPath(byte[] source, int offset, int length) {
+        if (pathPoolSize + length > pathPool.length) {
+            pathPool = Arrays.copyOf(pathPool, Math.max(pathPool.length * 2, pathPoolSize + length));
+        }
+        System.arraycopy(source, offset, pathPool, pathPoolSize, length);
+        int pathOffset = pathPoolSize;
+        pathPoolSize += length;
+        return pathOffset;
+    }
+
+    private void visit(int slot, EntryVisitor visitor) {
+        visitor.visit(getPath(slot), domains.get(domainIds[slot] & 0xFF), sizes[slot],
+                Integer.toUnsignedLong(lastAccesses[slot]) * 1000L, accessCounts[slot]);
+    }
+
+    private String getPath(int slot) {
+        return new String(pathPool, pathOffsets[slot], pathLengths[slot], StandardCharsets.UTF_8);
+    }
+
+    private void removeSizes(int slot) {
+        int domainId = domainIds[slot] & 0xFF;
+        totalSize -= sizes[slot];
+        domainSizes[domainId] -= sizes[slot];
+        domainCounts[domainId]--;
+    }
+
+    private int getOrCreateDomainId(String domain) {
+        int domainId = domains.indexOf(domain);
+        if (domainId < 0) {
+            if (domains.size() >= MAX_DOMAINS) {
+                throw new IllegalStateException("Too many media index domains");
+            }
+            domains.add(domain);
+            domainId = domains.size() - 1;
+        }
+        return domainId;
+    }
+
+    private static long hash(String path) {
+        long hash = HashUtil.hash64(path);
+        return hash != 0 ? hash : 1;
+    }
+
+    private static int toSeconds(long millis) {
+        return (int) (millis / 1000L);
+    }
+
+
+    public interface EntryVisitor {
+
+        void visit(String path, String domain, long size, long lastAccessMillis, int accessCount);
+
+    }
+
+}
@@ -0,0 +1,115 @@
+package core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class MediaIndexLoader {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(MediaIndexLoader.class);
+    private static final Duration SNAPSHOT_INTERVAL = Duration.ofMinutes(5);
+    private static final Duration PART_FILE_MAX_AGE = Duration.ofDays(1);
+
+    public static MediaIndex start(Path cdnRoot, Path snapshotFile) {
+        MediaIndex mediaIndex = null;
+        if (Files.exists(snapshotFile)) {
+            long startMillis = System.currentTimeMillis();
+            try {
+                mediaIndex = MediaIndex.load(snapshotFile);
+                mediaIndex.setReady();
+                LOGGER.info("Media index loaded ({} entries; {} bytes; {} ms)", mediaIndex.size(), mediaIndex.getTotalSize(),
+                        System.currentTimeMillis() - startMillis);
+            } catch (Throwable e) {
+                LOGGER.error("Could not load media index snapshot, rescanning", e);
+            }
+        }
+
+        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+        if (mediaIndex == null) {
+            MediaIndex newMediaIndex = new MediaIndex();
+            executorService.execute(() -> scan(cdnRoot, newMediaIndex));
+            mediaIndex = newMediaIndex;
+        }
+
+        MediaIndex finalMediaIndex = mediaIndex;
+        executorService.scheduleWithFixedDelay(() -> save(finalMediaIndex, snapshotFile), SNAPSHOT_INTERVAL.toMillis(),
+                SNAPSHOT_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> save(finalMediaIndex, snapshotFile)));
+        return mediaIndex;
+    }
+
+    public static String getDomain(String path) {
+        int start = path.startsWith("media/") ? "media/".length() : 0;
+        int end = path.indexOf('/', start);
+        return end >= 0 ? path.substring(start, end) : path.substring(start);
+    }
+
+    private static void scan(Path cdnRoot, MediaIndex mediaIndex) {
+        LOGGER.info("Scanning media cache...");
+        long startMillis = System.currentTimeMillis();
+        Instant now = Instant.now();
+        for (String dir : new String[] { "media", "pixiv" }) {
+            Path root = cdnRoot.resolve(dir);
+            if (!Files.isDirectory(root)) {
+                continue;
+            }
+
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (!attrs.isRegularFile()) {
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        String name = file.getFileName().toString();
+                        if (name.endsWith(VideoDownloader.PART_SUFFIX) || name.endsWith(VideoDownloader.PART_SUFFIX + VideoDownloader.META_SUFFIX)) {
+                            if (now.isAfter(attrs.lastModifiedTime().toInstant().plus(PART_FILE_MAX_AGE))) {
+                                Files.deleteIfExists(file);
+                            }
+                        } else {
+                            String path = cdnRoot.relativize(file).toString();
+                            mediaIndex.put(path, getDomain(path), attrs.size(), attrs.lastModifiedTime().toMillis());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        LOGGER.warn("Media index scan could not visit {}", file, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (Throwable e) {
+                LOGGER.error("Error while scanning media cache", e);
+            }
+        }
+
+        mediaIndex.setReady();
+        LOGGER.info("Media cache scan completed ({} entries; {} bytes; {} ms)", mediaIndex.size(), mediaIndex.getTotalSize(),
+                System.currentTimeMillis() - startMillis);
+    }
+
+    private static void save(MediaIndex mediaIndex, Path snapshotFile) {
+        if (!mediaIndex.isReady()) {
+            return;
+        }
+        try {
+            mediaIndex.save(snapshotFile);
+        } catch (Throwable e) {
+            LOGGER.error("Could not save media index snapshot", e);
+        }
+    }
+
+}
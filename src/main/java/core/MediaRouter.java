@@ -0,0 +1,85 @@
+package core;
+
+public class MediaRouter {
+
+    private final ShardConfig shardConfig;
+    private final MediaSource[] sources;
+
+    public MediaRouter(ShardConfig shardConfig, MediaSource... sources) {
+        this.shardConfig = shardConfig;
+        this.sources = sources;
+    }
+
+    public VideoRequest route(String uri) {
+        if (uri == null || uri.length() < 2 || uri.charAt(0) != '/') {
+            return null;
+        }
+
+        int domainStart = uri.indexOf('/', 1) + 1;
+        if (domainStart == 0) {
+            return null;
+        }
+        int domainEnd = uri.indexOf('/', domainStart);
+        if (domainEnd < 0) {
+            return null;
+        }
+        MediaSource source = findSource(uri, domainStart, domainEnd);
+        if (source == null) {
+            return null;
+        }
+
+        int dirStart = domainEnd + 1;
+        int fileStart = dirStart;
+        for (int i = 0; i < source.getDirSegments(); i++) {
+            int slash = uri.indexOf('/', fileStart);
+            if (slash < 0) {
+                return null;
+            }
+            fileStart = slash + 1;
+        }
+        if (uri.indexOf('/', fileStart) >= 0) {
+            return null;
+        }
+
+        return resolve(source, uri.substring(dirStart, fileStart - 1), uri, fileStart);
+    }
+
+    public VideoRequest route(String domain, String videoDir, String videoFileAndSubdomain) {
+        MediaSource source = findSource(domain, 0, domain.length());
+        if (source == null) {
+            return null;
+        }
+        return resolve(source, videoDir, videoFileAndSubdomain, 0);
+    }
+
+    private VideoRequest resolve(MediaSource source, String videoDir, String string, int fileStart) {
+        String videoFile;
+        String subdomain = null;
+        int query = string.indexOf('?', fileStart);
+        if (query < 0) {
+            videoFile = string.substring(fileStart);
+        } else {
+            videoFile = string.substring(fileStart, query);
+            if (string.startsWith("s=", query + 1) && string.length() > query + 3) {
+                subdomain = string.substring(query + 3);
+            }
+        }
+
+        VideoRequest videoRequest = source.resolve(subdomain, videoDir, videoFile);
+        if (videoRequest == null || !shardConfig.isResponsible(videoDir, videoFile)) {
+            return null;
+        }
+        return videoRequest;
+    }
+
+    private MediaSource findSource(String string, int start, int end) {
+        for (MediaSource source : sources) {
+            String domain = source.getDomain();
+            if (domain.length() == end - start && string.regionMatches(start, domain, 0, domain.length())) {
+                return source;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,102 @@
+package core;
+
+public abstract class MediaSource {
+
+    private final String domain;
+    private final int dirSegments;
+    private final String defaultSubdomain;
+
+    protected MediaSource(String domain, int dirSegments, String defaultSubdomain) {
+        this.domain = domain;
+        this.dirSegments = dirSegments;
+        this.defaultSubdomain = defaultSubdomain;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public int getDirSegments() {
+        return dirSegments;
+    }
+
+    public String getDefaultSubdomain() {
+        return defaultSubdomain;
+    }
+
+    public abstract boolean isValid(String subdomain, String videoDir, String videoFile);
+
+    public abstract String getVideoUrl(String subdomain, String videoDir, String videoFile);
+
+    public VideoRequest resolve(String subdomain, String videoDir, String videoFile) {
+        if (subdomain == null) {
+            subdomain = defaultSubdomain;
+        }
+        if (!isValid(subdomain, videoDir, videoFile)) {
+            return null;
+        }
+        return new VideoRequest(domain, getVideoUrl(subdomain, videoDir, videoFile), videoDir, videoFile);
+    }
+
+    protected static boolean isSubdomain(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (!isLetterOrDigit(c) && c != '-') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static boolean isDigits(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static boolean isHexDirs(String string) {
+        int slash = string.indexOf('/');
+        if (slash < 0 || string.indexOf('/', slash + 1) >= 0) {
+            return false;
+        }
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (i != slash && (c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static boolean isFileName(String string, boolean lowerCaseOnly) {
+        if (string.isEmpty() || string.charAt(0) == '.') {
+            return false;
+        }
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' ||
+                    (!lowerCaseOnly && ((c >= 'A' && c <= 'Z') || c == '_' || c == '-'));
+            if (!valid) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static boolean isVideoFile(String file) {
+        int dot = file.indexOf('.');
+        if (dot < 0 || file.indexOf('.', dot + 1) >= 0) {
+            return false;
+        }
+        return file.endsWith(".mp4") || file.endsWith(".avi") || file.endsWith(".webm");
+    }
+
+    private static boolean isLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+}
@@ -0,0 +1,274 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+public class Metrics {
+
+    private static final Map<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+
+    public static Counter counter(String name, String help, String... labelNames) {
+        return (Counter) FAMILIES.computeIfAbsent(name, k -> new Counter(name, help, labelNames));
+    }
+
+    public static Histogram histogram(String name, String help, String... labelNames) {
+        return (Histogram) FAMILIES.computeIfAbsent(name, k -> new Histogram(name, help, labelNames));
+    }
+
+    public static void gauge(String name, String help, DoubleSupplier supplier) {
+        FAMILIES.put(name, new Gauge(name, help, "gauge", null, () -> Map.of(List.of(), supplier.getAsDouble())));
+    }
+
+    public static void counterFunction(String name, String help, DoubleSupplier supplier) {
+        FAMILIES.put(name, new Gauge(name, help, "counter", null, () -> Map.of(List.of(), supplier.getAsDouble())));
+    }
+
+    public static void gauge(String name, String help, String labelName, Supplier<Map<String, ? extends Number>> supplier) {
+        FAMILIES.put(name, new Gauge(name, help, "gauge", new String[] { labelName }, () -> {
+            Map<List<String>, Double> values = new ConcurrentSkipListMap<>(Metrics::compareLabels);
+            supplier.get().forEach((label, value) -> values.put(List.of(label), value.doubleValue()));
+            return values;
+        }));
+    }
+
+    public static String render() {
+        StringBuilder sb = new StringBuilder(8192);
+        for (Family family : FAMILIES.values()) {
+            sb.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            sb.append("# TYPE ").append(family.name).append(' ').append(family.getType()).append('\n');
+            family.render(sb);
+        }
+        return sb.toString();
+    }
+
+    private static void appendLabels(StringBuilder sb, String[] labelNames, List<String> labelValues, String extraName, String extraValue) {
+        int count = labelValues.size() + (extraName != null ? 1 : 0);
+        if (count == 0) {
+            return;
+        }
+
+        sb.append('{');
+        for (int i = 0; i < labelValues.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            appendLabel(sb, labelNames[i], labelValues.get(i));
+        }
+        if (extraName != null) {
+            if (!labelValues.isEmpty()) {
+                sb.append(',');
+            }
+            appendLabel(sb, extraName, extraValue);
+        }
+        sb.append('}');
+    }
+
+    private static void appendLabel(StringBuilder sb, String name, String value) {
+        sb.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '"' -> sb.append("\\\"");
+                case '\n' -> sb.append("\\n");
+                default -> sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static void appendValue(StringBuilder sb, double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+        sb.append('\n');
+    }
+
+    private static int compareLabels(List<String> a, List<String> b) {
+        for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+            int result = a.get(i).compareTo(b.get(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(a.size(), b.size());
+    }
+
+
+    private static abstract class Family {
+
+        protected final String name;
+        protected final String help;
+        protected final String[] labelNames;
+
+        protected Family(String name, String help, String[] labelNames) {
+            this.name = name;
+            this.help = help;
+            this.labelNames = labelNames;
+        }
+
+        protected List<String> toLabelValues(String[] labelValues) {
+            if (labelValues.length != labelNames.length) {
+                throw new IllegalArgumentException("Expected labels " + Arrays.toString(labelNames) + " for " + name);
+            }
+            return List.of(labelValues);
+        }
+
+        protected abstract String getType();
+
+        protected abstract void render(StringBuilder sb);
+
+    }
+
+
+    public static class Counter extends Family {
+
+        private final Map<List<String>, LongAdder> children = new ConcurrentHashMap<>();
+
+        private Counter(String name, String help, String[] labelNames) {
+            super(name, help, labelNames);
+        }
+
+        public LongAdder labels(String... labelValues) {
+            return children.computeIfAbsent(toLabelValues(labelValues), k -> new LongAdder());
+        }
+
+        public void inc(String... labelValues) {
+            labels(labelValues).increment();
+        }
+
+        public void add(long value, String... labelValues) {
+            labels(labelValues).add(value);
+        }
+
+        @Override
+        protected String getType() {
+            return "counter";
+        }
+
+        @Override
+        protected void render(StringBuilder sb) {
+            List<List<String>> keys = new ArrayList<>(children.keySet());
+            keys.sort(Metrics::compareLabels);
+            for (List<String> labelValues : keys) {
+                sb.append(name);
+                appendLabels(sb, labelNames, labelValues, null, null);
+                sb.append(' ');
+                appendValue(sb, children.get(labelValues).sum());
+            }
+        }
+
+    }
+
+
+    public static class Histogram extends Family {
+
+        private static final int BUCKETS = 28;
+
+        private final Map<List<String>, Child> children = new ConcurrentHashMap<>();
+
+        private Histogram(String name, String help, String[] labelNames) {
+            super(name, help, labelNames);
+        }
+
+        public Child labels(String... labelValues) {
+            return children.computeIfAbsent(toLabelValues(labelValues), k -> new Child());
+        }
+
+        public void observeNanos(long nanos, String... labelValues) {
+            labels(labelValues).observeNanos(nanos);
+        }
+
+        @Override
+        protected String getType() {
+            return "histogram";
+        }
+
+        @Override
+        protected void render(StringBuilder sb) {
+            List<List<String>> keys = new ArrayList<>(children.keySet());
+            keys.sort(Metrics::compareLabels);
+            for (List<String> labelValues : keys) {
+                Child child = children.get(labelValues);
+                long cumulative = 0;
+                for (int i = 0; i < BUCKETS; i++) {
+                    cumulative += child.buckets[i].sum();
+                    sb.append(name).append("_bucket");
+                    appendLabels(sb, labelNames, labelValues, "le", i == BUCKETS - 1 ? "+Inf" : String.valueOf((1L << i) / 1_000_000.0));
+                    sb.append(' ');
+                    appendValue(sb, cumulative);
+                }
+                sb.append(name).append("_sum");
+                appendLabels(sb, labelNames, labelValues, null, null);
+                sb.append(' ');
+                appendValue(sb, child.sumSeconds.sum());
+                sb.append(name).append("_count");
+                appendLabels(sb, labelNames, labelValues, null, null);
+                sb.append(' ');
+                appendValue(sb, cumulative);
+            }
+        }
+
+
+        public static class Child {
+
+            private final LongAdder[] buckets = new LongAdder[BUCKETS];
+            private final DoubleAdder sumSeconds = new DoubleAdder();
+
+            private Child() {
+                for (int i = 0; i < BUCKETS; i++) {
+                    buckets[i] = new LongAdder();
+                }
+            }
+
+            public void observeNanos(long nanos) {
+                long micros = Math.max(1, nanos / 1000);
+                int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+                buckets[bucket].increment();
+                sumSeconds.add(nanos / 1_000_000_000.0);
+            }
+
+        }
+
+    }
+
+
+    private static class Gauge extends Family {
+
+        private final String type;
+        private final Supplier<Map<List<String>, Double>> supplier;
+
+        private Gauge(String name, String help, String type, String[] labelNames, Supplier<Map<List<String>, Double>> supplier) {
+            super(name, help, labelNames != null ? labelNames : new String[0]);
+            this.type = type;
+            this.supplier = supplier;
+        }
+
+        @Override
+        protected String getType() {
+            return type;
+        }
+
+        @Override
+        protected void render(StringBuilder sb) {
+            for (Map.Entry<List<String>, Double> entry : supplier.get().entrySet()) {
+                sb.append(name);
+                appendLabels(sb, labelNames, entry.getKey(), null, null);
+                sb.append(' ');
+                appendValue(sb, entry.getValue());
+            }
+        }
+
+    }
+
+}
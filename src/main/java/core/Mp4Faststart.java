@@ -0,0 +1,192 @@
+package core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+public class Mp4Faststart {
+
+    private static final int MAX_MOOV_SIZE = 64 * 1024 * 1024;
+
+    /*
+     * writes a copy of source with the moov box in front of the first mdat box to target,
+     * returns false without writing anything if the file is already optimized or cannot be remuxed
+     */
+    public static boolean remux(File source, File target) throws IOException {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long fileSize = in.size();
+            long firstMdatStart = -1;
+            long moovStart = -1;
+            long moovSize = 0;
+
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(16);
+            while (position < fileSize) {
+                long[] box = readBoxHeader(in, header, position, fileSize);
+                if (box == null) {
+                    return false;
+                }
+                long size = box[0];
+                String type = fourCC((int) box[1]);
+                switch (type) {
+                    case "mdat" -> {
+                        if (firstMdatStart < 0) {
+                            firstMdatStart = position;
+                        }
+                    }
+                    case "moov" -> {
+                        moovStart = position;
+                        moovSize = size;
+                    }
+                    case "moof" -> {
+                        return false;
+                    }
+                }
+                position += size;
+            }
+
+            if (moovStart < 0 || firstMdatStart < 0 || moovStart < firstMdatStart || moovSize > MAX_MOOV_SIZE) {
+                return false;
+            }
+
+            ByteBuffer moov = ByteBuffer.allocate((int) moovSize);
+            in.map(FileChannel.MapMode.READ_ONLY, moovStart, moovSize).get(moov.array());
+            if (!patchOffsets(moov, 0, (int) moovSize, firstMdatStart, moovStart, moovSize)) {
+                return false;
+            }
+
+            boolean written = false;
+            try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)
+            ) {
+                transfer(in, out, 0, firstMdatStart);
+                while (moov.hasRemaining()) {
+                    out.write(moov);
+                }
+                transfer(in, out, firstMdatStart, moovStart - firstMdatStart);
+                transfer(in, out, moovStart + moovSize, fileSize - moovStart - moovSize);
+                out.force(false);
+                written = true;
+            } finally {
+                if (!written) {
+                    target.delete();
+                }
+            }
+            return true;
+        }
+    }
+
+    private static long[] readBoxHeader(FileChannel channel, ByteBuffer header, long position, long fileSize) throws IOException {
+        header.clear().limit((int) Math.min(16, fileSize - position));
+        while (header.hasRemaining()) {
+            if (channel.read(header, position + header.position()) < 0) {
+                break;
+            }
+        }
+        if (header.position() < 8) {
+            return null;
+        }
+
+        long size = Integer.toUnsignedLong(header.getInt(0));
+        int type = header.getInt(4);
+        if (size == 1) {
+            if (header.position() < 16) {
+                return null;
+            }
+            size = header.getLong(8);
+        } else if (size == 0) {
+            size = fileSize - position;
+        }
+        if (size < 8 || size > fileSize - position) {
+            return null;
+        }
+        return new long[] { size, type };
+    }
+
+    private static boolean patchOffsets(ByteBuffer buffer, int start, int end, long insertPosition, long moovStart, long moovSize) {
+        int position = start;
+        while (position + 8 <= end) {
+            long size = Integer.toUnsignedLong(buffer.getInt(position));
+            String type = fourCC(buffer.getInt(position + 4));
+            int headerSize = 8;
+            if (size == 1) {
+                if (position + 16 > end) {
+                    return false;
+                }
+                size = buffer.getLong(position + 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < headerSize || size > end - position) {
+                return false;
+            }
+
+            int boxEnd = position + (int) size;
+            int payload = position + headerSize;
+            switch (type) {
+                case "moov", "trak", "mdia", "minf", "stbl" -> {
+                    if (!patchOffsets(buffer, payload, boxEnd, insertPosition, moovStart, moovSize)) {
+                        return false;
+                    }
+                }
+                case "stco" -> {
+                    if (payload + 8 > boxEnd) {
+                        return false;
+                    }
+                    int count = buffer.getInt(payload + 4);
+                    if (count < 0 || payload + 8 + (long) count * 4 > boxEnd) {
+                        return false;
+                    }
+                    for (int i = 0; i < count; i++) {
+                        int index = payload + 8 + i * 4;
+                        long offset = shift(Integer.toUnsignedLong(buffer.getInt(index)), insertPosition, moovStart, moovSize);
+                        if (offset > 0xFFFFFFFFL) {
+                            return false;
+                        }
+                        buffer.putInt(index, (int) offset);
+                    }
+                }
+                case "co64" -> {
+                    if (payload + 8 > boxEnd) {
+                        return false;
+                    }
+                    int count = buffer.getInt(payload + 4);
+                    if (count < 0 || payload + 8 + (long) count * 8 > boxEnd) {
+                        return false;
+                    }
+                    for (int i = 0; i < count; i++) {
+                        int index = payload + 8 + i * 8;
+                        buffer.putLong(index, shift(buffer.getLong(index), insertPosition, moovStart, moovSize));
+                    }
+                }
+            }
+            position = boxEnd;
+        }
+        return true;
+    }
+
+    private static long shift(long offset, long insertPosition, long moovStart, long moovSize) {
+        return offset >= insertPosition && offset < moovStart ? offset + moovSize : offset;
+    }
+
+    private static void transfer(FileChannel in, FileChannel out, long position, long count) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long n = in.transferTo(position + transferred, count - transferred, out);
+            if (n <= 0) {
+                throw new IOException("Unexpected end of file while remuxing");
+            }
+            transferred += n;
+        }
+    }
+
+    private static String fourCC(int type) {
+        return new String(new char[] {
+                (char) ((type >>> 24) & 0xFF), (char) ((type >>> 16) & 0xFF), (char) ((type >>> 8) & 0xFF), (char) (type & 0xFF)
+        });
+    }
+
+}
@@ -0,0 +1,154 @@
+package core;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class OriginLimitInterceptor implements Interceptor {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(OriginLimitInterceptor.class);
+    private static final int MAX_LIMITERS = 64;
+    private static final String OVERFLOW_KEY = "other";
+
+    private final Map<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long acquireTimeoutMillis;
+
+    public OriginLimitInterceptor(int initialLimit, int minLimit, int maxLimit, long acquireTimeoutMillis) {
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    public static OriginLimitInterceptor fromEnv() {
+        return new OriginLimitInterceptor(
+                Integer.parseInt(System.getenv().getOrDefault("ORIGIN_INITIAL_CONCURRENCY", "16")),
+                Integer.parseInt(System.getenv().getOrDefault("ORIGIN_MIN_CONCURRENCY", "1")),
+                Integer.parseInt(System.getenv().getOrDefault("ORIGIN_MAX_CONCURRENCY", "64")),
+                Long.parseLong(System.getenv().getOrDefault("ORIGIN_ACQUIRE_TIMEOUT_MILLIS", "30000"))
+        );
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        String origin = getOrigin(chain.request().url().host());
+        AdaptiveLimiter limiter = getLimiter(origin);
+        try {
+            if (!limiter.acquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Origin concurrency limit reached for {} ({} in flight)", origin, limiter.getInFlight());
+                throw new LimitExceededException("Origin concurrency limit reached for " + origin);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        AtomicBoolean released = new AtomicBoolean(false);
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                limiter.release();
+            }
+        };
+        long startNanos = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException | RuntimeException e) {
+            limiter.onOverload(System.nanoTime() - startNanos);
+            release.run();
+            throw e;
+        }
+
+        long latencyNanos = System.nanoTime() - startNanos;
+        if (isOverloaded(response.code())) {
+            limiter.onOverload(latencyNanos);
+        } else {
+            limiter.onSuccess(latencyNanos);
+        }
+
+        ResponseBody body = response.body();
+        if (body == null) {
+            release.run();
+            return response;
+        }
+        ForwardingSource source = new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long n = super.read(sink, byteCount);
+                if (n == -1) {
+                    release.run();
+                }
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    release.run();
+                }
+            }
+        };
+        return response.newBuilder()
+                .body(ResponseBody.create(Okio.buffer(source), body.contentType(), body.contentLength()))
+                .build();
+    }
+
+    public Map<String, AdaptiveLimiter> getLimiters() {
+        return Collections.unmodifiableMap(limiters);
+    }
+
+    public static boolean isOverloaded(int code) {
+        return code == 429 || code == 502 || code == 503 || code == 504;
+    }
+
+    private AdaptiveLimiter getLimiter(String origin) {
+        AdaptiveLimiter limiter = limiters.get(origin);
+        if (limiter != null) {
+            return limiter;
+        }
+        String key = limiters.size() < MAX_LIMITERS ? origin : OVERFLOW_KEY;
+        return limiters.computeIfAbsent(key, k -> new AdaptiveLimiter(initialLimit, minLimit, maxLimit));
+    }
+
+    /*
+     * subdomains come from user input, so limiters are shared per registrable domain (e.g. rule34.xxx)
+     */
+    private static String getOrigin(String host) {
+        int lastDot = host.lastIndexOf('.');
+        if (lastDot <= 0 || Character.isDigit(host.charAt(host.length() - 1)) || host.indexOf(':') >= 0) {
+            return host;
+        }
+        int dot = host.lastIndexOf('.', lastDot - 1);
+        return dot < 0 ? host : host.substring(dot + 1);
+    }
+
+
+    public static class LimitExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public LimitExceededException(String message) {
+            super(message);
+        }
+
+    }
+
+}
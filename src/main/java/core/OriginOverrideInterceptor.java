@@ -0,0 +1,34 @@
+package core;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+
+public class OriginOverrideInterceptor implements Interceptor {
+
+    public static final String ORIGINAL_HOST_HEADER = "X-Original-Host";
+
+    private final HttpUrl origin;
+
+    public OriginOverrideInterceptor(String origin) {
+        this.origin = HttpUrl.get(origin);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        HttpUrl url = request.url().newBuilder()
+                .scheme(origin.scheme())
+                .host(origin.host())
+                .port(origin.port())
+                .build();
+        return chain.proceed(request.newBuilder()
+                .url(url)
+                .header(ORIGINAL_HOST_HEADER, request.url().host())
+                .build());
+    }
+
+}
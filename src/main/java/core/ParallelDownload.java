@@ -0,0 +1,276 @@
+package core;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.StringUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+
+public class ParallelDownload {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(ParallelDownload.class);
+    private static final long MIN_BYTES = StringUtil.parseByteSize(System.getenv().getOrDefault("PARALLEL_DOWNLOAD_MIN_BYTES", "32M"));
+    private static final int MAX_SEGMENTS = Integer.parseInt(System.getenv().getOrDefault("PARALLEL_DOWNLOAD_SEGMENTS", "4"));
+    private static final long MIN_SEGMENT_BYTES = 4L * 1024 * 1024;
+    private static final int MAX_SEGMENT_ATTEMPTS = 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Metrics.Counter DOWNLOADS = Metrics.counter("media_parallel_downloads_total",
+            "Downloads split into ranged segments by result", "result");
+    private static final Metrics.Counter SEGMENT_RETRIES = Metrics.counter("media_parallel_segment_retries_total",
+            "Retried download segments");
+
+    private final OkHttpClient httpClient;
+    private final ExecutorService executorService;
+    private final Deadline deadline;
+    private final String videoUrl;
+    private final long length;
+    private final GrowingFile growingFile;
+    private final Queue<Call> calls = new ConcurrentLinkedQueue<>();
+    private final Queue<Integer> deferredSegments = new PriorityBlockingQueue<>();
+    private long[] starts;
+    private long[] ends;
+    private long[] written;
+    private volatile boolean aborted;
+    private IOException failure;
+
+    public ParallelDownload(OkHttpClient httpClient, ExecutorService executorService, Deadline deadline, String videoUrl,
+                            long length, GrowingFile growingFile
+    ) {
+        this.httpClient = httpClient;
+        this.executorService = executorService;
+        this.deadline = deadline;
+        this.videoUrl = videoUrl;
+        this.length = length;
+        this.growingFile = growingFile;
+    }
+
+    public static int getSegmentCount(Response response, long length) {
+        if (MAX_SEGMENTS <= 1 || length < MIN_BYTES || !"bytes".equalsIgnoreCase(response.header("Accept-Ranges")) ||
+                getValidator(response) == null
+        ) {
+            return 1;
+        }
+        return (int) Math.max(1, Math.min(MAX_SEGMENTS, length / MIN_SEGMENT_BYTES));
+    }
+
+    /*
+     * writes the video into partFile using the body of firstResponse for the first segment and ranged requests
+     * for the remaining ones, on failure partFile is truncated to its contiguous prefix so it can be resumed.
+     * segments which cannot get an origin permit are downloaded sequentially after the first one instead
+     */
+    public long download(Response firstResponse, File partFile, int segmentCount) throws IOException {
+        String validator = getValidator(firstResponse);
+        starts = new long[segmentCount];
+        ends = new long[segmentCount];
+        written = new long[segmentCount];
+        long segmentLength = length / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            starts[i] = i * segmentLength;
+            ends[i] = i == segmentCount - 1 ? length - 1 : (i + 1) * segmentLength - 1;
+        }
+        LOGGER.info("Downloading video in {} segments: {}", segmentCount, videoUrl);
+
+        try (FileChannel channel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)
+        ) {
+            channel.write(ByteBuffer.allocate(1), length - 1);
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 1; i < segmentCount; i++) {
+                int index = i;
+                futures.add(executorService.submit(() -> runSegment(channel, index, validator, null, true)));
+            }
+            runSegment(channel, 0, validator, firstResponse.body(), false);
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    fail(new IOException(e.getCause()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fail(new InterruptedIOException());
+                }
+            }
+            Integer deferredIndex;
+            while (getFailure() == null && (deferredIndex = deferredSegments.poll()) != null) {
+                LOGGER.info("Downloading deferred segment {} of {}", deferredIndex, videoUrl);
+                runSegment(channel, deferredIndex, validator, null, false);
+            }
+
+            IOException error = getFailure();
+            if (error != null) {
+                channel.truncate(getContiguousLength());
+                DOWNLOADS.inc("failed");
+                throw error;
+            }
+            for (int i = 0; i < segmentCount; i++) {
+                if (written[i] != ends[i] - starts[i] + 1) {
+                    DOWNLOADS.inc("failed");
+                    throw new IOException("Incomplete segment " + i + " for " + videoUrl + ": " + written[i] + " / " +
+                            (ends[i] - starts[i] + 1) + " bytes");
+                }
+            }
+            if (channel.size() != length) {
+                DOWNLOADS.inc("failed");
+                throw new IOException("Unexpected file size after parallel download: " + channel.size() + " / " + length + " bytes");
+            }
+        }
+        DOWNLOADS.inc("completed");
+        return length;
+    }
+
+    private void runSegment(FileChannel channel, int index, String validator, ResponseBody initialBody, boolean deferrable) {
+        try {
+            downloadSegment(channel, index, validator, initialBody);
+        } catch (OriginLimitInterceptor.LimitExceededException e) {
+            if (deferrable && !aborted) {
+                LOGGER.warn("Deferring segment {} of {}: {}", index, videoUrl, e.getMessage());
+                deferredSegments.add(index);
+            } else {
+                fail(e);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void downloadSegment(FileChannel channel, int index, String validator, ResponseBody initialBody) throws IOException {
+        if (initialBody != null) {
+            try {
+                writeSegment(channel, index, initialBody);
+            } catch (IOException e) {
+                if (aborted || deadline.isExpired()) {
+                    throw e;
+                }
+                SEGMENT_RETRIES.inc();
+                LOGGER.warn("Retrying segment {} of {} after {}", index, videoUrl, e.toString());
+            }
+        }
+
+        for (int attempt = 1; !isComplete(index); attempt++) {
+            long position = starts[index] + getWritten(index);
+            Request request = new Request.Builder()
+                    .header("User-Agent", RestService.USER_AGENT)
+                    .header("Accept-Encoding", "identity")
+                    .header("Range", "bytes=" + position + "-" + ends[index])
+                    .header("If-Range", validator)
+                    .url(videoUrl)
+                    .get()
+                    .build();
+            Call call = deadline.track(httpClient.newCall(request));
+            calls.add(call);
+            if (aborted) {
+                call.cancel();
+            }
+
+            try (Response response = call.execute()) {
+                String contentRange = response.header("Content-Range");
+                if (response.code() != 206 || !("bytes " + position + "-" + ends[index] + "/" + length).equals(contentRange)) {
+                    fail(new IOException("Origin did not honor range " + position + "-" + ends[index] + " for " + videoUrl +
+                            " (" + response.code() + ", " + contentRange + ")"));
+                    return;
+                }
+                writeSegment(channel, index, response.body());
+            } catch (IOException e) {
+                if (e instanceof OriginLimitInterceptor.LimitExceededException || aborted || deadline.isExpired() ||
+                        attempt >= MAX_SEGMENT_ATTEMPTS
+                ) {
+                    throw e;
+                }
+                SEGMENT_RETRIES.inc();
+                LOGGER.warn("Retrying segment {} of {} after {} (attempt {})", index, videoUrl, e.toString(), attempt);
+            } finally {
+                calls.remove(call);
+            }
+        }
+    }
+
+    private void writeSegment(FileChannel channel, int index, ResponseBody body) throws IOException {
+        long position = starts[index] + getWritten(index);
+        long remaining = ends[index] + 1 - position;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (BufferedSource source = body.source()) {
+            while (remaining > 0) {
+                if (aborted) {
+                    throw new IOException("Parallel download aborted: " + videoUrl);
+                }
+                int n = source.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n == -1) {
+                    throw new IOException("Segment " + index + " ended early at " + position + " for " + videoUrl);
+                }
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, n);
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+                remaining -= n;
+                onWritten(index, n);
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        aborted = true;
+        calls.forEach(Call::cancel);
+    }
+
+    private synchronized IOException getFailure() {
+        return failure;
+    }
+
+    private synchronized void onWritten(int index, long bytes) {
+        written[index] += bytes;
+        growingFile.advanceTo(getContiguousLength());
+    }
+
+    private synchronized long getWritten(int index) {
+        return written[index];
+    }
+
+    private synchronized boolean isComplete(int index) {
+        return written[index] == ends[index] - starts[index] + 1;
+    }
+
+    private synchronized long getContiguousLength() {
+        long contiguousLength = 0;
+        for (int i = 0; i < written.length; i++) {
+            contiguousLength += written[i];
+            if (written[i] != ends[i] - starts[i] + 1) {
+                break;
+            }
+        }
+        return contiguousLength;
+    }
+
+    private static String getValidator(Response response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+}
@@ -0,0 +1,129 @@
+package core;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class PeerFetcher {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(PeerFetcher.class);
+    public static final String AUTH_HEADER = "X-Peer-Auth";
+
+    private final OkHttpClient httpClient;
+    private final String auth;
+    private final List<String> peers;
+    private final Map<Integer, String> shardPeers;
+    private final int previousMaxShards;
+
+    public PeerFetcher(OkHttpClient httpClient, String auth, List<String> peers,
+                       Map<Integer, String> shardPeers, int previousMaxShards
+    ) {
+        this.httpClient = httpClient;
+        this.auth = auth;
+        this.peers = peers;
+        this.shardPeers = shardPeers;
+        this.previousMaxShards = previousMaxShards;
+    }
+
+    public static PeerFetcher fromEnv(OkHttpClient httpClient) {
+        String previousMaxShards = System.getenv("PREVIOUS_MAX_SHARDS");
+        return new PeerFetcher(
+                httpClient,
+                System.getenv("AUTH"),
+                parsePeers(System.getenv("PEERS")),
+                parseShardPeers(System.getenv("SHARD_PEERS")),
+                previousMaxShards != null ? Integer.parseInt(previousMaxShards) : 0
+        );
+    }
+
+    public static List<String> parsePeers(String peersString) {
+        if (peersString == null || peersString.isBlank()) {
+            return Collections.emptyList();
+        }
+
+        ArrayList<String> peers = new ArrayList<>();
+        for (String peer : peersString.split(",")) {
+            if (!peer.isBlank()) {
+                peers.add(stripTrailingSlash(peer.trim()));
+            }
+        }
+        return peers;
+    }
+
+    public static Map<Integer, String> parseShardPeers(String shardPeersString) {
+        if (shardPeersString == null || shardPeersString.isBlank()) {
+            return Collections.emptyMap();
+        }
+
+        HashMap<Integer, String> shardPeers = new HashMap<>();
+        for (String entry : shardPeersString.split(",")) {
+            int separator = entry.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid shard peer: " + entry);
+            }
+            shardPeers.put(Integer.parseInt(entry.substring(0, separator).trim()),
+                    stripTrailingSlash(entry.substring(separator + 1).trim()));
+        }
+        return shardPeers;
+    }
+
+    public boolean isEnabled() {
+        return auth != null && (!peers.isEmpty() || (previousMaxShards > 0 && !shardPeers.isEmpty()));
+    }
+
+    public List<String> getCandidates(String videoDir, String videoFilename) {
+        Set<String> candidates = new LinkedHashSet<>();
+        if (previousMaxShards > 0) {
+            int previousShard = ShardConfig.getShard(videoDir, videoFilename, previousMaxShards);
+            String previousOwner = shardPeers.get(previousShard);
+            if (previousOwner != null) {
+                candidates.add(previousOwner);
+            }
+        }
+        candidates.addAll(peers);
+        return new ArrayList<>(candidates);
+    }
+
+    public Response fetch(String domain, String videoDir, String videoFilename, Deadline deadline) {
+        for (String peer : getCandidates(videoDir, videoFilename)) {
+            Request request = new Request.Builder()
+                    .header(AUTH_HEADER, auth)
+                    .header("Accept-Encoding", "identity")
+                    .url(peer + "/internal/media/" + domain + "/" + videoDir + "/" + videoFilename)
+                    .get()
+                    .build();
+            try {
+                Response response = deadline.track(httpClient.newCall(request)).execute();
+                if (response.code() == 200) {
+                    return response;
+                }
+                response.close();
+                if (response.code() != 404) {
+                    LOGGER.warn("Unexpected response code {} from peer {}", response.code(), peer);
+                }
+            } catch (IOException e) {
+                if (deadline.isExpired()) {
+                    return null;
+                }
+                LOGGER.warn("Peer {} unavailable: {}", peer, e.toString());
+            }
+        }
+        return null;
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+}
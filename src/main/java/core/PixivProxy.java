@@ -0,0 +1,261 @@
+package core;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.StringUtil;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+public class PixivProxy {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(PixivProxy.class);
+    static final Metrics.Counter REQUESTS = Metrics.counter("pixiv_proxy_requests_total",
+            "Pixiv proxy requests by outcome", "result");
+    private static final Metrics.Histogram DOWNLOAD_DURATION = Metrics.histogram("pixiv_proxy_download_duration_seconds",
+            "Duration of pixiv image downloads");
+    private static final Metrics.Histogram RESIZE_DURATION = Metrics.histogram("pixiv_proxy_resize_duration_seconds",
+            "Duration of pixiv variant generation");
+
+    private static final Pattern ID_PATTERN = Pattern.compile("^[a-zA-Z0-9_-]+$");
+    private static final Set<String> EXTENSIONS = Set.of(".jpg", ".jpeg", ".png", ".gif");
+    private static final Set<Integer> VARIANT_WIDTHS = Set.of(320, 640, 1280);
+    private static final long MAX_IMAGE_SIZE = 64L * 1024 * 1024;
+    private static final long MAX_IMAGE_PIXELS = Long.parseLong(System.getenv().getOrDefault("PIXIV_MAX_IMAGE_PIXELS", "100000000"));
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Duration DOWNLOAD_DEADLINE = Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("PIXIV_DEADLINE_SECONDS", "30")));
+
+    private final OkHttpClient httpClient;
+    private final MediaIndex mediaIndex;
+    private final String cdnRoot;
+    private final HashedWheelTimer timer;
+    private final ExecutorService downloadExecutor = Program.newExecutorService();
+    private final ExecutorService resizeExecutor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private final SingleFlight<String, File> flights = new SingleFlight<>();
+    private final SingleFlight<String, File> variantFlights = new SingleFlight<>();
+
+    public PixivProxy(OkHttpClient httpClient, MediaIndex mediaIndex, String cdnRoot, HashedWheelTimer timer) {
+        this.httpClient = httpClient;
+        this.mediaIndex = mediaIndex;
+        this.cdnRoot = cdnRoot;
+        this.timer = timer;
+    }
+
+    public static boolean isValidRequest(String imageUrl, String id) {
+        int dot = imageUrl.lastIndexOf('.');
+        return dot >= 0 &&
+                EXTENSIONS.contains(imageUrl.substring(dot).toLowerCase()) &&
+                ID_PATTERN.matcher(id).matches();
+    }
+
+    public static boolean isValidVariantWidth(int width) {
+        return VARIANT_WIDTHS.contains(width);
+    }
+
+    public CompletableFuture<File> fetch(String imageUrl, String id) {
+        String indexPath = "pixiv/" + id + StringUtil.getUriExt(imageUrl);
+        File file = new File(cdnRoot, indexPath);
+        if (isCached(indexPath, file)) {
+            mediaIndex.touch(indexPath, System.currentTimeMillis());
+            REQUESTS.inc("hit");
+            return CompletableFuture.completedFuture(file);
+        }
+
+        return flights.run(indexPath, () -> CompletableFuture.supplyAsync(() -> {
+            REQUESTS.inc("miss");
+            download(imageUrl, indexPath, file);
+            return file;
+        }, downloadExecutor));
+    }
+
+    public CompletableFuture<File> fetchVariant(String imageUrl, String id, int width) {
+        String ext = StringUtil.getUriExt(imageUrl);
+        if (ext.equalsIgnoreCase(".gif")) {
+            // resizing would flatten animations and change the format, gifs are served as they are
+            return fetch(imageUrl, id);
+        }
+        String indexPath = "pixiv/" + id + "_w" + width + ext;
+        File file = new File(cdnRoot, indexPath);
+        if (isCached(indexPath, file)) {
+            mediaIndex.touch(indexPath, System.currentTimeMillis());
+            REQUESTS.inc("variant_hit");
+            return CompletableFuture.completedFuture(file);
+        }
+
+        return variantFlights.run(indexPath, () -> fetch(imageUrl, id).thenApplyAsync(original -> {
+            REQUESTS.inc("variant_miss");
+            return resize(original, ext, width, indexPath, file);
+        }, resizeExecutor));
+    }
+
+    private boolean isCached(String indexPath, File file) {
+        if (!mediaIndex.isReady()) {
+            return file.exists();
+        }
+        if (!mediaIndex.contains(indexPath)) {
+            return false;
+        }
+        if (file.isFile()) {
+            return true;
+        }
+        if (mediaIndex.remove(indexPath)) {
+            LOGGER.warn("Indexed image is missing on disk: {}", file);
+        }
+        return false;
+    }
+
+    private void download(String imageUrl, String indexPath, File file) {
+        LOGGER.info("Downloading image: {}", imageUrl);
+        long startNanos = System.nanoTime();
+        Request request = new Request.Builder()
+                .header("User-Agent", RestService.USER_AGENT)
+                .header("Referer", "https://app-api.pixiv.net")
+                .url(imageUrl)
+                .get()
+                .build();
+
+        File tempFile = new File(file.getPath() + VideoDownloader.PART_SUFFIX);
+        try (Deadline deadline = new Deadline(timer, DOWNLOAD_DEADLINE);
+             okhttp3.Response response = deadline.track(httpClient.newCall(request)).execute();
+             ResponseBody body = response.body()
+        ) {
+            if (response.code() != 200) {
+                throw new IOException("Unexpected response code " + response.code() + " for " + imageUrl);
+            }
+            String contentType = response.header("Content-Type", "");
+            if (!contentType.startsWith("image/")) {
+                throw new IOException("Unexpected content type " + contentType + " for " + imageUrl);
+            }
+            long expectedLength = body.contentLength();
+            if (expectedLength > MAX_IMAGE_SIZE) {
+                throw new IOException("Image too large (" + expectedLength + " bytes): " + imageUrl);
+            }
+
+            file.getParentFile().mkdirs();
+            long length = 0;
+            try (InputStream inputStream = body.byteStream();
+                 OutputStream outputStream = Files.newOutputStream(tempFile.toPath())
+            ) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = inputStream.read(buffer)) != -1) {
+                    length += n;
+                    if (length > MAX_IMAGE_SIZE) {
+                        throw new IOException("Image too large (more than " + MAX_IMAGE_SIZE + " bytes): " + imageUrl);
+                    }
+                    outputStream.write(buffer, 0, n);
+                }
+            }
+            if (expectedLength >= 0 && length != expectedLength) {
+                throw new IOException("Incomplete image download: " + length + " / " + expectedLength + " bytes");
+            }
+            if (length == 0) {
+                throw new IOException("Empty image: " + imageUrl);
+            }
+
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            mediaIndex.put(indexPath, "pixiv", length, System.currentTimeMillis());
+            DOWNLOAD_DURATION.observeNanos(System.nanoTime() - startNanos);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private File resize(File original, String ext, int width, String indexPath, File file) {
+        long startNanos = System.nanoTime();
+        try {
+            BufferedImage image;
+            try (ImageInputStream inputStream = ImageIO.createImageInputStream(original)) {
+                Iterator<ImageReader> readers = inputStream != null ? ImageIO.getImageReaders(inputStream) : null;
+                if (readers == null || !readers.hasNext()) {
+                    throw new IOException("Unsupported image format: " + original);
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(inputStream, true, true);
+                    int imageWidth = reader.getWidth(0);
+                    long pixels = (long) imageWidth * reader.getHeight(0);
+                    if (pixels > MAX_IMAGE_PIXELS) {
+                        throw new IOException("Image has too many pixels (" + pixels + "): " + original);
+                    }
+                    if (imageWidth <= width) {
+                        return linkOriginal(original, indexPath, file);
+                    }
+                    image = reader.read(0);
+                } finally {
+                    reader.dispose();
+                }
+            }
+
+            int height = Math.max(1, (int) Math.round((double) image.getHeight() * width / image.getWidth()));
+            boolean opaque = ext.equalsIgnoreCase(".jpg") || ext.equalsIgnoreCase(".jpeg");
+            BufferedImage resized = new BufferedImage(width, height, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = resized.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(image, 0, 0, width, height, null);
+            } finally {
+                graphics.dispose();
+            }
+
+            File tempFile = new File(file.getPath() + VideoDownloader.PART_SUFFIX);
+            try {
+                if (!ImageIO.write(resized, opaque ? "jpg" : "png", tempFile)) {
+                    throw new IOException("No image writer for " + ext);
+                }
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                tempFile.delete();
+            }
+            mediaIndex.put(indexPath, "pixiv", file.length(), System.currentTimeMillis());
+            RESIZE_DURATION.observeNanos(System.nanoTime() - startNanos);
+            return file;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * images no wider than the variant are served as they are, the link lets later requests hit the variant directly
+     */
+    private File linkOriginal(File original, String indexPath, File file) throws IOException {
+        File tempFile = new File(file.getPath() + VideoDownloader.PART_SUFFIX);
+        try {
+            Files.deleteIfExists(tempFile.toPath());
+            try {
+                Files.createLink(tempFile.toPath(), original.toPath());
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                Files.copy(original.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tempFile.delete();
+        }
+        mediaIndex.put(indexPath, "pixiv", file.length(), System.currentTimeMillis());
+        return file;
+    }
+
+}
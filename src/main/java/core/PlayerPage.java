@@ -0,0 +1,166 @@
+package core;
+
+import org.json.JSONObject;
+import util.HashUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PlayerPage {
+
+    private static final String TEMPLATE = """
+            <!doctype html>
+            <html lang="en">
+            <head>
+                <meta charset="utf-8">
+                <title>Lawliet Bot</title>
+                <base href="/">
+                <meta name="viewport" content="width=device-width, initial-scale=1">
+                <meta property="og:type" content="video.other">
+                <meta property="og:video:url" content="{url}">
+                <meta property="og:video:width" content="{width}">
+                <meta property="og:video:height" content="{height}">
+                <meta property="og:video:type" content="video/mp4">
+                <meta property="og:image" content="{thumbnail_url}">
+                <link rel="alternate" type="application/json+oembed" href="{oembed_url}">
+                <style>
+                :root {
+                    background-color: black;
+                    height: 100%;
+                    -moz-user-focus: ignore;
+                }
+                video {
+                    position: absolute;
+                    inset: 0;
+                    margin: auto;
+                    width: 100%;
+                    height: 100%;
+                }
+                </style>
+            </head>
+            <body>
+                <video src="{url}" autoplay loop controls></video>
+            </body>
+            </html>
+            """;
+    private static final String[] SLOTS = { "{url}", "{thumbnail_url}", "{width}", "{height}", "{oembed_url}" };
+    private static final int VERSION = 2;
+    private static final CompiledTemplate HTML = CompiledTemplate.compile(TEMPLATE);
+    private static final CompiledTemplate OEMBED_VIDEO = CompiledTemplate.compile(
+            "<video src=\"{url}\" width=\"{width}\" height=\"{height}\" autoplay loop controls></video>"
+    );
+
+    private final String url;
+    private final String thumbnailUrl;
+    private final int width;
+    private final int height;
+    private final String oembedUrl;
+
+    public PlayerPage(String url, String thumbnailUrl, int width, int height, String oembedUrl) {
+        this.url = url;
+        this.thumbnailUrl = thumbnailUrl;
+        this.width = width;
+        this.height = height;
+        this.oembedUrl = oembedUrl;
+    }
+
+    public static String getETag(String path, String subdomain, int width, int height, boolean oembed) {
+        long hash = HashUtil.hash64(VERSION + "|" + path + "|" + subdomain + "|" + width + "|" + height + "|" + oembed);
+        return Long.toHexString(hash);
+    }
+
+    public byte[] renderHtml() {
+        return HTML.render(new String[] { url, thumbnailUrl, String.valueOf(width), String.valueOf(height), oembedUrl });
+    }
+
+    public byte[] renderOEmbed() {
+        String videoHtml = new String(
+                OEMBED_VIDEO.render(new String[] { url, thumbnailUrl, String.valueOf(width), String.valueOf(height), oembedUrl }),
+                StandardCharsets.UTF_8
+        );
+        JSONObject json = new JSONObject()
+                .put("version", "1.0")
+                .put("type", "video")
+                .put("provider_name", "Lawliet Bot")
+                .put("width", width)
+                .put("height", height)
+                .put("html", videoHtml);
+        if (!thumbnailUrl.isEmpty()) {
+            json.put("thumbnail_url", thumbnailUrl);
+        }
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeEscaped(ByteArrayOutputStream out, String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&' -> sb.append("&amp;");
+                case '<' -> sb.append("&lt;");
+                case '>' -> sb.append("&gt;");
+                case '"' -> sb.append("&quot;");
+                case '\'' -> sb.append("&#39;");
+                default -> sb.append(c);
+            }
+        }
+        out.writeBytes(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    private static class CompiledTemplate {
+
+        private final byte[][] segments;
+        private final int[] slots;
+        private final int staticLength;
+
+        private CompiledTemplate(byte[][] segments, int[] slots) {
+            this.segments = segments;
+            this.slots = slots;
+            int staticLength = 0;
+            for (byte[] segment : segments) {
+                staticLength += segment.length;
+            }
+            this.staticLength = staticLength;
+        }
+
+        public static CompiledTemplate compile(String template) {
+            List<byte[]> segments = new ArrayList<>();
+            List<Integer> slots = new ArrayList<>();
+            int position = 0;
+            while (true) {
+                int nextIndex = -1;
+                int nextSlot = -1;
+                for (int slot = 0; slot < SLOTS.length; slot++) {
+                    int index = template.indexOf(SLOTS[slot], position);
+                    if (index >= 0 && (nextIndex < 0 || index < nextIndex)) {
+                        nextIndex = index;
+                        nextSlot = slot;
+                    }
+                }
+                if (nextIndex < 0) {
+                    segments.add(template.substring(position).getBytes(StandardCharsets.UTF_8));
+                    break;
+                }
+                segments.add(template.substring(position, nextIndex).getBytes(StandardCharsets.UTF_8));
+                slots.add(nextSlot);
+                position = nextIndex + SLOTS[nextSlot].length();
+            }
+            return new CompiledTemplate(segments.toArray(new byte[0][]), slots.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        public byte[] render(String[] values) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(staticLength + 512);
+            for (int i = 0; i < slots.length; i++) {
+                out.writeBytes(segments[i]);
+                writeEscaped(out, values[slots[i]]);
+            }
+            out.writeBytes(segments[segments.length - 1]);
+            return out.toByteArray();
+        }
+
+    }
+
+}
@@ -1,10 +1,14 @@
 package core;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class Program {
 
     public static void init() {
         System.out.println("-------------------------------------");
         System.out.println("Production Mode: " + isProductionMode());
+        System.out.println("Virtual Threads: " + isVirtualThreadsEnabled());
         System.out.println("-------------------------------------");
     }
 
@@ -12,4 +16,16 @@ public class Program {
         return System.getenv("PRODUCTION").equals("true");
     }
 
+    public static boolean isVirtualThreadsEnabled() {
+        return Boolean.parseBoolean(System.getenv("VIRTUAL_THREADS"));
+    }
+
+    public static ExecutorService newExecutorService() {
+        if (isVirtualThreadsEnabled()) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        } else {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
 }
@@ -0,0 +1,26 @@
+package core;
+
+public class RealbooruSource extends MediaSource {
+
+    public RealbooruSource() {
+        super("realbooru", 2, null);
+    }
+
+    @Override
+    public VideoRequest resolve(String subdomain, String videoDir, String videoFile) {
+        return super.resolve("", videoDir, videoFile);
+    }
+
+    @Override
+    public boolean isValid(String subdomain, String videoDir, String videoFile) {
+        return isHexDirs(videoDir) &&
+                isFileName(videoFile, false) &&
+                isVideoFile(videoFile);
+    }
+
+    @Override
+    public String getVideoUrl(String subdomain, String videoDir, String videoFile) {
+        return "https://realbooru.com//images/" + videoDir + "/" + videoFile;
+    }
+
+}
@@ -0,0 +1,68 @@
+package core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class RebalancePlanner {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: RebalancePlanner <old max shards> <new max shards> [media root]");
+            System.exit(1);
+        }
+
+        int oldMaxShards = Integer.parseInt(args[0]);
+        int newMaxShards = Integer.parseInt(args[1]);
+        Path mediaRoot = Path.of(args.length >= 3 ? args[2] : VideoDownloader.VIDEO_ROOT_DIR);
+
+        long[] counts = new long[3];
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+             DirectoryStream<Path> domainDirs = Files.newDirectoryStream(mediaRoot, Files::isDirectory)
+        ) {
+            out.println("path\told_shard\tnew_shard\tsize");
+            for (Path domainDir : domainDirs) {
+                Files.walkFileTree(domainDir, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        String name = file.getFileName().toString();
+                        if (!attrs.isRegularFile() || name.endsWith(VideoDownloader.PART_SUFFIX) ||
+                                name.endsWith(VideoDownloader.PART_SUFFIX + VideoDownloader.META_SUFFIX)
+                        ) {
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        String videoDir = domainDir.relativize(file.getParent()).toString();
+                        int oldShard = ShardConfig.getShard(videoDir, name, oldMaxShards);
+                        int newShard = ShardConfig.getShard(videoDir, name, newMaxShards);
+                        if (oldShard != newShard) {
+                            out.println(mediaRoot.relativize(file) + "\t" + oldShard + "\t" + newShard + "\t" + attrs.size());
+                            counts[1]++;
+                            counts[2] += attrs.size();
+                        }
+                        counts[0]++;
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        System.err.println("Could not visit " + file + ": " + e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+        }
+
+        System.err.printf("%d / %d files (%d bytes) move when going from %d to %d shards%n",
+                counts[1], counts[0], counts[2], oldMaxShards, newMaxShards);
+    }
+
+}
@@ -0,0 +1,74 @@
+package core;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class RedisAccessTimeStore implements AccessTimeStore {
+
+    private static final int MGET_SIZE = 100;
+
+    private final JedisPool jedisPool;
+
+    public RedisAccessTimeStore(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    public JedisPool getJedisPool() {
+        return jedisPool;
+    }
+
+    @Override
+    public void write(List<Map.Entry<String, Instant>> entries) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (Map.Entry<String, Instant> entry : entries) {
+                pipeline.set(entry.getKey(), entry.getValue().toString());
+            }
+            pipeline.sync();
+        }
+    }
+
+    @Override
+    public List<Instant> read(List<String> keys) {
+        List<Response<List<String>>> responses = new ArrayList<>();
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (int i = 0; i < keys.size(); i += MGET_SIZE) {
+                List<String> chunk = keys.subList(i, Math.min(i + MGET_SIZE, keys.size()));
+                responses.add(pipeline.mget(chunk.toArray(new String[0])));
+            }
+            pipeline.sync();
+        }
+
+        List<Instant> values = new ArrayList<>(keys.size());
+        for (Response<List<String>> response : responses) {
+            for (String value : response.get()) {
+                values.add(value != null ? Instant.parse(value) : null);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void remove(List<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.del(keys.toArray(new String[0]));
+        }
+    }
+
+    @Override
+    public void close() {
+        jedisPool.close();
+    }
+
+}
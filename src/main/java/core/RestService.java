@@ -2,28 +2,31 @@ package core;
 
 import jakarta.inject.Singleton;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.core.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import okhttp3.*;
 import okhttp3.Request;
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
-import util.StringUtil;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetAddress;
 import java.net.URI;
-import java.time.Instant;
-import java.util.Arrays;
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
@@ -33,46 +36,150 @@ public class RestService {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(RestService.class);
 
-    private final JedisPool jedisPool = new JedisPool(
-            buildPoolConfig(),
-            System.getenv("REDIS_HOST"),
-            Integer.parseInt(System.getenv("REDIS_PORT"))
-    );
-
     public static final String USER_AGENT = "Lawliet Discord Bot by aninoss";
 
     private final Pattern SUBDOMAIN_PATTERN = Pattern.compile("^[a-zA-Z0-9-]*$");
-    private final Pattern RULE34_VIDEO_DIR_PATTERN = Pattern.compile("^[0-9]*$");
-    private final Pattern DANBOORU_VIDEO_DIR_PATTERN = Pattern.compile("^[0-9a-f]*/[0-9a-f]*$");
-    private final Pattern REALBOORU_VIDEO_DIR_PATTERN = DANBOORU_VIDEO_DIR_PATTERN;
-    private final Pattern RULE34_VIDEO_FILE_PATTERN = Pattern.compile("^[a-z0-9.]*$");
     private final Pattern PLAYER_PATH_PATTERN = Pattern.compile("^/[a-zA-Z0-9/_]*\\.[a-zA-Z0-9]*$");
+    private static final long STREAM_LENGTH_TIMEOUT_SECONDS = Long.parseLong(System.getenv().getOrDefault("STREAM_LENGTH_TIMEOUT_SECONDS", "10"));
 
-    private final String DEFAULT_SUBDOMAIN_RULE34 = "api-cdn-mp4";
-    private final String DEFAULT_SUBDOMAIN_DANBOORU = "cdn";
+    private final int MAX_PREFETCH_BATCH_SIZE = 1000;
+    private final int MAX_PLAYER_DIMENSION = 10_000;
+    private final int PLAYER_MAX_AGE_SECONDS = 86400;
 
+    private final ShardConfig shardConfig = ShardConfig.fromEnv();
+    private final MediaRouter mediaRouter = new MediaRouter(shardConfig, new Rule34Source(), new DanbooruSource(), new RealbooruSource());
+    private final CachingDns cachingDns = CachingDns.fromEnv();
+    private final OriginLimitInterceptor originLimitInterceptor = OriginLimitInterceptor.fromEnv();
+    private final HashedWheelTimer deadlineTimer = HashedWheelTimer.start(Duration.ofMillis(100), 512);
     private final OkHttpClient httpClient;
+    private final MediaIndex mediaIndex;
     private final VideoDownloader videoDownloader;
+    private final PixivProxy pixivProxy;
+    private final AccessTimeStore accessTimeStore;
+    private final AccessTimestampWriter accessTimestampWriter;
 
     public RestService() {
         Dispatcher dispatcher = new Dispatcher();
         dispatcher.setMaxRequests(999);
         dispatcher.setMaxRequestsPerHost(999);
         ConnectionPool connectionPool = new ConnectionPool(100, 5, TimeUnit.MINUTES);
-        Dns dns = hostname -> Arrays.asList(InetAddress.getAllByName(hostname));
 
-        this.httpClient = new OkHttpClient.Builder()
-                .dns(dns)
+        OkHttpClient baseHttpClient = new OkHttpClient.Builder()
+                .dns(cachingDns)
                 .connectionPool(connectionPool)
                 .dispatcher(dispatcher)
-                .callTimeout(30, TimeUnit.SECONDS)
                 .connectTimeout(15, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
                 .writeTimeout(15, TimeUnit.SECONDS)
                 .cache(null)
                 .protocols(List.of(Protocol.HTTP_1_1))
                 .build();
-        this.videoDownloader = new VideoDownloader(new LockManager(), jedisPool, httpClient);
+        OkHttpClient.Builder originHttpClientBuilder = baseHttpClient.newBuilder()
+                .addInterceptor(new RetryInterceptor(3, 250, 5_000))
+                .addInterceptor(originLimitInterceptor);
+        String originOverride = System.getenv("ORIGIN_OVERRIDE");
+        if (originOverride != null) {
+            originHttpClientBuilder.addInterceptor(new OriginOverrideInterceptor(originOverride));
+        }
+        this.httpClient = originHttpClientBuilder.build();
+        OkHttpClient peerHttpClient = baseHttpClient.newBuilder()
+                .connectTimeout(2, TimeUnit.SECONDS)
+                .build();
+        this.mediaIndex = MediaIndexLoader.start(
+                java.nio.file.Path.of(VideoDownloader.CDN_ROOT_DIR),
+                java.nio.file.Path.of(VideoDownloader.CDN_ROOT_DIR, "media-index.bin")
+        );
+        BlobStore blobStore = new BlobStore(VideoDownloader.CDN_ROOT_DIR);
+        this.videoDownloader = new VideoDownloader(httpClient, mediaIndex, PeerFetcher.fromEnv(peerHttpClient), deadlineTimer,
+                BlobStore.isEnabled() ? blobStore : null);
+        this.pixivProxy = new PixivProxy(httpClient, mediaIndex, VideoDownloader.CDN_ROOT_DIR, deadlineTimer);
+        this.accessTimeStore = createAccessTimeStore();
+        this.accessTimestampWriter = new AccessTimestampWriter(accessTimeStore);
+        accessTimestampWriter.start();
+        if (Boolean.parseBoolean(System.getenv("CACHE_CLEANER"))) {
+            new CacheCleaner(accessTimeStore, mediaIndex, VideoDownloader.CDN_ROOT_DIR, blobStore).start();
+        }
+        if (CacheEvictor.isConfigured()) {
+            new CacheEvictor(mediaIndex, accessTimeStore, VideoDownloader.CDN_ROOT_DIR, blobStore).start();
+        }
+        registerMetrics(connectionPool);
+    }
+
+    private AccessTimeStore createAccessTimeStore() {
+        String type = System.getenv().getOrDefault("ACCESS_STORE", "redis");
+        switch (type) {
+            case "redis" -> {
+                return new RedisAccessTimeStore(new JedisPool(
+                        buildPoolConfig(),
+                        System.getenv("REDIS_HOST"),
+                        Integer.parseInt(System.getenv("REDIS_PORT"))
+                ));
+            }
+            case "mmap" -> {
+                try {
+                    return MappedAccessTimeStore.fromEnv(VideoDownloader.CDN_ROOT_DIR);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not open access time log", e);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown access store: " + type);
+        }
+    }
+
+    private void registerMetrics(ConnectionPool connectionPool) {
+        if (accessTimeStore instanceof RedisAccessTimeStore redisAccessTimeStore) {
+            JedisPool jedisPool = redisAccessTimeStore.getJedisPool();
+            Metrics.gauge("jedis_pool_active", "Borrowed Redis connections", jedisPool::getNumActive);
+            Metrics.gauge("jedis_pool_idle", "Idle Redis connections", jedisPool::getNumIdle);
+            Metrics.gauge("jedis_pool_waiters", "Threads waiting to borrow a Redis connection", jedisPool::getNumWaiters);
+            Metrics.gauge("jedis_pool_borrow_wait_mean_seconds", "Mean Redis connection borrow wait",
+                    () -> jedisPool.getMeanBorrowWaitTimeMillis() / 1000.0);
+            Metrics.gauge("jedis_pool_borrow_wait_max_seconds", "Max Redis connection borrow wait",
+                    () -> jedisPool.getMaxBorrowWaitTimeMillis() / 1000.0);
+        } else if (accessTimeStore instanceof MappedAccessTimeStore mappedAccessTimeStore) {
+            Metrics.gauge("access_store_keys", "Keys in the embedded access time log", mappedAccessTimeStore::getCount);
+            Metrics.gauge("access_store_log_bytes", "Size of the embedded access time log", mappedAccessTimeStore::getLogSize);
+        }
+        Metrics.gauge("okhttp_connections", "Pooled origin connections", connectionPool::connectionCount);
+        Metrics.gauge("okhttp_connections_idle", "Idle pooled origin connections", connectionPool::idleConnectionCount);
+        Metrics.gauge("origin_concurrency_limit", "Adaptive concurrency limit per origin domain", "origin", () -> {
+            Map<String, Integer> limits = new HashMap<>();
+            originLimitInterceptor.getLimiters().forEach((origin, limiter) -> limits.put(origin, limiter.getLimit()));
+            return limits;
+        });
+        Metrics.gauge("origin_in_flight", "Requests holding an origin permit per origin domain", "origin", () -> {
+            Map<String, Integer> inFlight = new HashMap<>();
+            originLimitInterceptor.getLimiters().forEach((origin, limiter) -> inFlight.put(origin, limiter.getInFlight()));
+            return inFlight;
+        });
+        Metrics.counterFunction("dns_cache_hits_total", "DNS cache hits", cachingDns::getHits);
+        Metrics.counterFunction("dns_cache_misses_total", "DNS cache misses", cachingDns::getMisses);
+        Metrics.counterFunction("dns_cache_negative_hits_total", "DNS negative cache hits", cachingDns::getNegativeHits);
+        Metrics.counterFunction("dns_cache_refreshes_total", "Background DNS refreshes", cachingDns::getRefreshes);
+        Metrics.counterFunction("dns_cache_failures_total", "Failed DNS lookups", cachingDns::getFailures);
+        Metrics.counterFunction("dns_cache_evictions_total", "DNS cache entries evicted to stay within the size bound", cachingDns::getEvictions);
+        Metrics.gauge("download_scheduler_queued", "Queued prefetch downloads", () -> videoDownloader.getDownloadScheduler().getQueueDepth());
+        Metrics.gauge("download_scheduler_running", "Running prefetch downloads", () -> videoDownloader.getDownloadScheduler().getRunningPrefetches());
+        Metrics.gauge("deadline_timer_pending", "Download deadlines waiting to expire", deadlineTimer::getPendingTimeouts);
+        Metrics.gauge("access_timestamp_queue", "Access timestamps waiting to be written to the access time store", accessTimestampWriter::getQueueDepth);
+        Metrics.gauge("media_index_ready", "Whether the media index finished loading", () -> mediaIndex.isReady() ? 1 : 0);
+        Metrics.gauge("media_index_files", "Indexed files per domain", "domain", () -> {
+            Map<String, Integer> counts = new HashMap<>();
+            mediaIndex.getDomains().forEach(domain -> counts.put(domain, mediaIndex.getCount(domain)));
+            return counts;
+        });
+        Metrics.gauge("media_index_bytes", "Indexed bytes per domain", "domain", () -> {
+            Map<String, Long> sizes = new HashMap<>();
+            mediaIndex.getDomains().forEach(domain -> sizes.put(domain, mediaIndex.getTotalSize(domain)));
+            return sizes;
+        });
+    }
+
+    @GET
+    @Path("/metrics")
+    @Produces("text/plain; version=0.0.4")
+    public String metrics() {
+        return Metrics.render();
     }
 
     @GET
@@ -84,57 +191,216 @@ public class RestService {
 
     @GET
     @Path("/request")
-    public Response request(@HeaderParam("X-Original-URI") String uri) {
+    public void request(@HeaderParam("X-Original-URI") String uri, @Suspended AsyncResponse asyncResponse) {
         try {
-            if (!uri.contains("/")) {
-                return Response.status(403).build();
+            VideoRequest videoRequest = mediaRouter.route(uri);
+            if (videoRequest == null) {
+                asyncResponse.resume(Response.status(403).build());
+                return;
             }
 
-            String[] parts = uri.substring(1).split("/");
-            if (parts.length < 4) {
-                return Response.status(403).build();
+            videoDownloader.downloadVideo(videoRequest.getDomain(), videoRequest.getVideoUrl(), videoRequest.getVideoDir(), videoRequest.getVideoFile())
+                    .whenComplete((videoFile, e) -> {
+                        try {
+                            if (e != null) {
+                                LOGGER.error("Exception on video download", e);
+                            }
+                            saveVideoRequested(videoRequest.getKey());
+                            asyncResponse.resume(Response.status(200).build());
+                        } catch (Throwable e2) {
+                            LOGGER.error("Video request error", e2);
+                            asyncResponse.resume(Response.status(500).build());
+                        }
+                    });
+        } catch (Throwable e) {
+            LOGGER.error("Video request error", e);
+            asyncResponse.resume(Response.status(500).build());
+        }
+    }
+
+    @POST
+    @Path("/prefetch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response prefetch(String body) {
+        try {
+            JSONArray uris;
+            try {
+                uris = new JSONArray(body);
+            } catch (JSONException e) {
+                return Response.status(400).build();
+            }
+            if (uris.length() > MAX_PREFETCH_BATCH_SIZE) {
+                return Response.status(413).build();
             }
 
-            if (parts[1].equals("rule34")) {
-                if (parts.length != 4) {
-                    return Response.status(403).build();
+            int accepted = 0;
+            int rejected = 0;
+            for (int i = 0; i < uris.length(); i++) {
+                VideoRequest videoRequest = mediaRouter.route(uris.optString(i, null));
+                if (videoRequest == null) {
+                    rejected++;
+                    continue;
                 }
-                return requestRule34(parts);
-            } else if (parts[1].equals("danbooru")) {
-                if (parts.length != 5) {
-                    return Response.status(403).build();
-                }
-                return requestDanbooru(parts);
-            } else if (parts[1].equals("realbooru")) {
-                if (parts.length != 5) {
-                    return Response.status(403).build();
+
+                accepted++;
+                videoDownloader.prefetchVideo(videoRequest.getDomain(), videoRequest.getVideoUrl(), videoRequest.getVideoDir(), videoRequest.getVideoFile())
+                        .whenComplete((videoFile, e) -> {
+                            if (e != null) {
+                                LOGGER.warn("Video prefetch failed: {} ({})", videoRequest.getKey(), e.toString());
+                            } else {
+                                accessTimestampWriter.record(videoRequest.getKey());
+                            }
+                        });
+            }
+
+            JSONObject result = getPrefetchStatus()
+                    .put("accepted", accepted)
+                    .put("rejected", rejected);
+            return Response.ok(result.toString()).build();
+        } catch (Throwable e) {
+            LOGGER.error("Prefetch error", e);
+            return Response.status(500).build();
+        }
+    }
+
+    @GET
+    @Path("/prefetch")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String prefetchStatus() {
+        return getPrefetchStatus().toString();
+    }
+
+    private JSONObject getPrefetchStatus() {
+        DownloadScheduler downloadScheduler = videoDownloader.getDownloadScheduler();
+        return new JSONObject()
+                .put("queued", downloadScheduler.getQueueDepth())
+                .put("running", downloadScheduler.getRunningPrefetches());
+    }
+
+    /*
+     * serves a video while it is still being downloaded, as opposed to /request which only answers once the file is
+     * complete. nginx falls back to it for files that are not on disk yet, passing the client's Range header through:
+     *
+     * location /media/ {
+     *     try_files $uri @stream;
+     * }
+     * location @stream {
+     *     rewrite ^ /stream break;
+     *     proxy_set_header X-Original-URI $request_uri;
+     *     proxy_buffering off;
+     *     proxy_pass http://media_provider;
+     * }
+     */
+    @GET
+    @Path("/stream")
+    public Response stream(@HeaderParam("X-Original-URI") String uri, @HeaderParam("Range") String range) {
+        try {
+            VideoRequest videoRequest = mediaRouter.route(uri);
+            if (videoRequest == null) {
+                return Response.status(403).build();
+            }
+
+            GrowingFile growingFile = videoDownloader.openVideo(videoRequest.getDomain(), videoRequest.getVideoUrl(), videoRequest.getVideoDir(), videoRequest.getVideoFile());
+            saveVideoRequested(videoRequest.getKey());
+            String mediaType = getVideoMediaType(videoRequest.getVideoFile());
+            long length = growingFile.awaitExpectedLength(STREAM_LENGTH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (length < 0) {
+                return Response.ok(streamingOutput(growingFile, 0, -1), mediaType).build();
+            }
+
+            long[] byteRange = range != null ? FileResponder.parseRange(range, length) : new long[0];
+            if (byteRange == null) {
+                return Response.status(416)
+                        .header("Content-Range", "bytes */" + length)
+                        .build();
+            }
+            if (byteRange.length == 0) {
+                return Response.ok(streamingOutput(growingFile, 0, length), mediaType)
+                        .header(HttpHeaders.CONTENT_LENGTH, length)
+                        .header("Accept-Ranges", "bytes")
+                        .build();
+            }
+            long start = byteRange[0];
+            long end = byteRange[1];
+            return Response.status(206)
+                    .entity(streamingOutput(growingFile, start, end - start + 1))
+                    .type(mediaType)
+                    .header(HttpHeaders.CONTENT_LENGTH, end - start + 1)
+                    .header("Content-Range", "bytes " + start + "-" + end + "/" + length)
+                    .header("Accept-Ranges", "bytes")
+                    .build();
+        } catch (Throwable e) {
+            LOGGER.error("Video stream error", e);
+            return Response.status(500).build();
+        }
+    }
+
+    private static StreamingOutput streamingOutput(GrowingFile growingFile, long start, long length) {
+        return outputStream -> {
+            try (InputStream inputStream = growingFile.openStream(start)) {
+                if (length < 0) {
+                    inputStream.transferTo(outputStream);
+                } else if (IOUtils.copyLarge(inputStream, outputStream, 0, length) != length) {
+                    throw new IOException("Video stream ended early: " + growingFile.getFile());
                 }
-                return requestRealbooru(parts);
-            } else {
+            }
+        };
+    }
+
+    @GET
+    @Path("/internal/media/{path:.+}")
+    public Response internalMedia(@PathParam("path") String path, @HeaderParam(PeerFetcher.AUTH_HEADER) String auth) {
+        try {
+            String expectedAuth = System.getenv("AUTH");
+            if (expectedAuth == null || !expectedAuth.equals(auth) || path.contains("..") || path.contains("\\")) {
                 return Response.status(403).build();
             }
+
+            File file = new File(VideoDownloader.VIDEO_ROOT_DIR, path);
+            if (!file.isFile() || file.getName().endsWith(VideoDownloader.PART_SUFFIX) ||
+                    file.getName().endsWith(VideoDownloader.PART_SUFFIX + VideoDownloader.META_SUFFIX)
+            ) {
+                return Response.status(404).build();
+            }
+
+            return Response.ok(file, MediaType.APPLICATION_OCTET_STREAM)
+                    .header(HttpHeaders.CONTENT_LENGTH, file.length())
+                    .build();
         } catch (Throwable e) {
-            LOGGER.error("Video request error", e);
+            LOGGER.error("Internal media error", e);
             return Response.status(500).build();
         }
     }
 
     @GET
     @Path("/player{path:.*}")
-    @Produces(MediaType.TEXT_HTML)
-    public Response player(@PathParam("path") String path, @Context UriInfo uriInfo) {
+    @Produces({ MediaType.TEXT_HTML, "application/json+oembed" })
+    public Response player(@PathParam("path") String path, @Context UriInfo uriInfo, @Context HttpHeaders headers) {
         if (!path.contains(".mp4")) {
             path += ".mp4";
         }
         MultivaluedMap<String, String> parameters = uriInfo.getQueryParameters();
-        String subdomain = parameters.get("s") != null ? parameters.get("s").get(0) : "";
-        int width = Integer.parseInt(parameters.get("w").get(0));
-        int height = Integer.parseInt(parameters.get("h").get(0));
+        String subdomain = parameters.getFirst("s") != null ? parameters.getFirst("s") : "";
+        int width = parsePlayerDimension(parameters.getFirst("w"));
+        int height = parsePlayerDimension(parameters.getFirst("h"));
+        if (width < 0 || height < 0) {
+            return Response.status(400).build();
+        }
 
         if (!PLAYER_PATH_PATTERN.matcher(path).matches() || !SUBDOMAIN_PATTERN.matcher(subdomain).matches()) {
             return Response.status(404).build();
         }
 
+        boolean oembed = "oembed".equals(parameters.getFirst("format"));
+        EntityTag etag = new EntityTag(PlayerPage.getETag(path, subdomain, width, height, oembed));
+        jakarta.ws.rs.core.CacheControl cacheControl = new jakarta.ws.rs.core.CacheControl();
+        cacheControl.setMaxAge(PLAYER_MAX_AGE_SECONDS);
+        String ifNoneMatch = headers.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && ifNoneMatch.contains("\"" + etag.getValue() + "\"")) {
+            return Response.notModified(etag).cacheControl(cacheControl).build();
+        }
+
         String url;
         String thumbnailUrl = "";
         if (path.startsWith("/e621")) {
@@ -151,248 +417,133 @@ public class RestService {
                 thumbnailUrl = "https://" + subdomain + ".rule34.xxx/images" + path.substring("/rule34".length()).replace(".mp4", ".jpg");
             }
         }
-        String html = """
-                <!doctype html>
-                <html lang="en">
-                <head>
-                    <meta charset="utf-8">
-                    <title>Lawliet Bot</title>
-                    <base href="/">
-                    <meta name="viewport" content="width=device-width, initial-scale=1">
-                    <meta property="og:type" content="video.other">
-                    <meta property="og:video:url" content="{url}">
-                    <meta property="og:video:width" content="{width}">
-                    <meta property="og:video:height" content="{height}">
-                    <meta property="og:video:type" content="video/mp4">
-                    <meta property="og:image" content="{thumbnail_url}">
-                    <style>
-                    :root {
-                        background-color: black;
-                        height: 100%;
-                        -moz-user-focus: ignore;
-                    }
-                    video {
-                        position: absolute;
-                        inset: 0;
-                        margin: auto;
-                        width: 100%;
-                        height: 100%;
-                    }
-                    </style>
-                </head>
-                <body>
-                    <video src="{url}" autoplay loop controls></video>
-                </body>
-                </html>
-                """
-                .replace("{url}", url)
-                .replace("{thumbnail_url}", thumbnailUrl)
-                .replace("{width}", String.valueOf(width))
-                .replace("{height}", String.valueOf(height));
-        return Response.ok(html).build();
-    }
-
-    private Response requestRule34(String[] parts) {
-        VideoFileAndSubdomain videoFileAndSubdomain = extractVideoFileSubdomain(parts[3], DEFAULT_SUBDOMAIN_RULE34);
-        String subdomain = videoFileAndSubdomain.subdomain;
-        String videoDir = parts[2];
-        String videoFile = videoFileAndSubdomain.videoFile;
+        String oembedUrl = System.getenv("URL_ROOT") + "/player" + path + "?s=" + subdomain + "&w=" + width + "&h=" + height + "&format=oembed";
 
-        if (!checkRequestUriRule34(subdomain, videoDir, videoFile)) {
-            return Response.status(403).build();
-        }
-
-        String videoUrl = "https://" + subdomain + ".rule34.xxx/images/" + videoDir + "/" + videoFile;
-        videoDownloader.downloadVideo("rule34", videoUrl, videoDir, videoFile);
-        saveVideoRequested("rule34/" + videoDir + "/" + videoFile);
-        return Response.status(200).build();
+        PlayerPage playerPage = new PlayerPage(url, thumbnailUrl, width, height, oembedUrl);
+        return Response.ok(oembed ? playerPage.renderOEmbed() : playerPage.renderHtml())
+                .type(oembed ? "application/json+oembed; charset=utf-8" : "text/html; charset=utf-8")
+                .tag(etag)
+                .cacheControl(cacheControl)
+                .build();
     }
 
-    private Response requestDanbooru(String[] parts) {
-        VideoFileAndSubdomain videoFileAndSubdomain = extractVideoFileSubdomain(parts[4], DEFAULT_SUBDOMAIN_DANBOORU);
-        String subdomain = videoFileAndSubdomain.subdomain;
-        String videoDir = parts[2] + "/" + parts[3];
-        String videoFile = videoFileAndSubdomain.videoFile;
-
-        if (!checkRequestUriDanbooru(subdomain, videoDir, videoFile)) {
-            return Response.status(403).build();
+    private int parsePlayerDimension(String value) {
+        if (value == null) {
+            return -1;
         }
-
-        String videoUrl = "https://" + subdomain + ".donmai.us/original/" + videoDir + "/" + videoFile;
-        videoDownloader.downloadVideo("danbooru", videoUrl, videoDir, videoFile);
-        saveVideoRequested("danbooru/" + videoDir + "/" + videoFile);
-        return Response.status(200).build();
-    }
-
-    private Response requestRealbooru(String[] parts) {
-        String videoDir = parts[2] + "/" + parts[3];
-        String videoFile = parts[4];
-
-        if (!checkRequestUriRealbooru(videoDir, videoFile)) {
-            return Response.status(403).build();
+        try {
+            int dimension = Integer.parseInt(value);
+            return dimension > 0 && dimension <= MAX_PLAYER_DIMENSION ? dimension : -1;
+        } catch (NumberFormatException e) {
+            return -1;
         }
-
-        String videoUrl = "https://realbooru.com//images/" + videoDir + "/" + videoFile;
-        videoDownloader.downloadVideo("realbooru", videoUrl, videoDir, videoFile);
-        saveVideoRequested("realbooru/" + videoDir + "/" + videoFile);
-        return Response.status(200).build();
     }
 
     @GET
     @Path("/media/rule34/{videoDir}/{videoFileAndSubdomainRaw}")
     public Response redirectRule34(@PathParam("videoDir") String videoDir,
-                                   @PathParam("videoFileAndSubdomainRaw") String videoFileAndSubdomainRaw) {
-        try {
-            VideoFileAndSubdomain videoFileAndSubdomain = extractVideoFileSubdomain(videoFileAndSubdomainRaw, DEFAULT_SUBDOMAIN_RULE34);
-            String subdomain = videoFileAndSubdomain.subdomain;
-            String videoFile = videoFileAndSubdomain.videoFile;
-
-            if (checkRequestUriRule34(subdomain, videoDir, videoFile)) {
-                String videoUrl = "https://" + subdomain + ".rule34.xxx/images/" + videoDir + "/" + videoFile;
-                return Response.temporaryRedirect(new URI(videoUrl)).build();
-            } else {
-                return Response.status(403).build();
-            }
-        } catch (Throwable e) {
-            LOGGER.error("Rule34 redirect error", e);
-            return Response.status(500).build();
-        }
+                                   @PathParam("videoFileAndSubdomainRaw") String videoFileAndSubdomainRaw,
+                                   @Context HttpHeaders headers) {
+        return serveVideo("rule34", videoDir, videoFileAndSubdomainRaw, headers);
     }
 
     @GET
     @Path("/media/danbooru/{videoDir1}/{videoDir2}/{videoFileAndSubdomainRaw}")
     public Response redirectDanbooru(@PathParam("videoDir1") String videoDir1,
                                      @PathParam("videoDir2") String videoDir2,
-                                   @PathParam("videoFileAndSubdomainRaw") String videoFileAndSubdomainRaw) {
-        try {
-            VideoFileAndSubdomain videoFileAndSubdomain = extractVideoFileSubdomain(videoFileAndSubdomainRaw, DEFAULT_SUBDOMAIN_DANBOORU);
-            String subdomain = videoFileAndSubdomain.subdomain;
-            String videoFile = videoFileAndSubdomain.videoFile;
-            String videoDir = videoDir1 + "/" + videoDir2;
-
-            if (checkRequestUriDanbooru(subdomain, videoDir, videoFile)) {
-                String videoUrl = "https://" + subdomain + ".donmai.us/original/" + videoDir + "/" + videoFile;
-                return Response.temporaryRedirect(new URI(videoUrl)).build();
-            } else {
-                return Response.status(403).build();
-            }
-        } catch (Throwable e) {
-            LOGGER.error("Danbooru redirect error", e);
-            return Response.status(500).build();
-        }
+                                     @PathParam("videoFileAndSubdomainRaw") String videoFileAndSubdomainRaw,
+                                     @Context HttpHeaders headers) {
+        return serveVideo("danbooru", videoDir1 + "/" + videoDir2, videoFileAndSubdomainRaw, headers);
     }
 
     @GET
     @Path("/media/realbooru/{videoDir1}/{videoDir2}/{videoFile}")
     public Response redirectRealbooru(@PathParam("videoDir1") String videoDir1,
-                                     @PathParam("videoDir2") String videoDir2,
-                                     @PathParam("videoFile") String videoFile) {
-        try {
-            String videoDir = videoDir1 + "/" + videoDir2;
-
-            if (checkRequestUriRealbooru(videoDir, videoFile)) {
-                String videoUrl = "https://realbooru.com//images/" + videoDir + "/" + videoFile;
-                return Response.temporaryRedirect(new URI(videoUrl)).build();
-            } else {
-                return Response.status(403).build();
-            }
-        } catch (Throwable e) {
-            LOGGER.error("Realbooru redirect error", e);
-            return Response.status(500).build();
-        }
+                                      @PathParam("videoDir2") String videoDir2,
+                                      @PathParam("videoFile") String videoFile,
+                                      @Context HttpHeaders headers) {
+        return serveVideo("realbooru", videoDir1 + "/" + videoDir2, videoFile, headers);
     }
 
-    @GET
-    @Path("/pixiv_download/{imageUrl}/{id}/{auth}")
-    @Consumes(MediaType.TEXT_PLAIN)
-    public Response proxy(@PathParam("imageUrl") String imageUrl, @PathParam("id") String id,
-                          @PathParam("auth") String auth
-    ) {
+    private Response serveVideo(String domain, String videoDir, String videoFileAndSubdomainRaw, HttpHeaders headers) {
         try {
-            if (!System.getenv("AUTH").equals(auth)) {
+            VideoRequest videoRequest = mediaRouter.route(domain, videoDir, videoFileAndSubdomainRaw);
+            if (videoRequest == null) {
                 return Response.status(403).build();
             }
 
-            String ext = StringUtil.getUriExt(imageUrl);
-            File proxyFile = new File("/cdn/pixiv/" + id + ext);
-
-            if (!proxyFile.exists()) {
-                LOGGER.info("Downloading image: {}", imageUrl);
-                Request request = new Request.Builder()
-                        .header("User-Agent", USER_AGENT)
-                        .header("Referer", "https://app-api.pixiv.net")
-                        .header("Accept-Encoding", "gzip")
-                        .url(imageUrl)
-                        .get()
-                        .build();
-                try (okhttp3.Response response = httpClient.newCall(request).execute();
-                     ResponseBody body = response.body();
-                     InputStream imageStream = body.byteStream()
-                ) {
-                    FileUtils.copyInputStreamToFile(imageStream, proxyFile);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+            Response localResponse = serveLocalVideo(videoRequest, headers);
+            if (localResponse != null) {
+                return localResponse;
             }
-
-            return Response.ok().build();
+            return Response.temporaryRedirect(new URI(videoRequest.getVideoUrl())).build();
         } catch (Throwable e) {
-            LOGGER.error("Error in /pixiv_download", e);
-            throw e;
+            LOGGER.error("Media redirect error ({})", domain, e);
+            return Response.status(500).build();
         }
     }
 
-    private VideoFileAndSubdomain extractVideoFileSubdomain(String videoFileAndSubdomain, String defaultSubdomain) {
-        if (videoFileAndSubdomain.contains("?s=")) {
-            String[] splits = videoFileAndSubdomain.split("\\?s=");
-            return new VideoFileAndSubdomain(splits[0], splits[1]);
-        } else {
-            return new VideoFileAndSubdomain(videoFileAndSubdomain.split("\\?")[0], defaultSubdomain);
+    private Response serveLocalVideo(VideoRequest videoRequest, HttpHeaders headers) {
+        File file = videoDownloader.getCachedVideo(videoRequest.getDomain(), videoRequest.getVideoDir(), videoRequest.getVideoFile());
+        if (file == null) {
+            return null;
         }
-    }
-
-    private boolean checkRequestUriRule34(String subdomain, String videoDir, String videoFile) {
-        return SUBDOMAIN_PATTERN.matcher(subdomain).matches() &&
-                RULE34_VIDEO_DIR_PATTERN.matcher(videoDir).matches() &&
-                RULE34_VIDEO_FILE_PATTERN.matcher(videoFile).matches() &&
-                fileIsVideo(videoFile) &&
-                isResponsible(videoDir, videoFile);
-    }
-
-    private boolean checkRequestUriDanbooru(String subdomain, String videoDir, String videoFile) {
-        return SUBDOMAIN_PATTERN.matcher(subdomain).matches() &&
-                DANBOORU_VIDEO_DIR_PATTERN.matcher(videoDir).matches() &&
-                isResponsible(videoDir, videoFile);
-    }
 
-    private boolean checkRequestUriRealbooru(String videoDir, String videoFile) {
-        return REALBOORU_VIDEO_DIR_PATTERN.matcher(videoDir).matches() &&
-                fileIsVideo(videoFile) &&
-                isResponsible(videoDir, videoFile);
+        saveVideoRequested(videoRequest.getKey());
+        return FileResponder.respond(file, getVideoMediaType(videoRequest.getVideoFile()), headers);
     }
 
-    private boolean isResponsible(String videoDir, String videoFilename) {
-        if (!Boolean.parseBoolean(System.getenv("SHARD_BLOCKING"))) {
-            return true;
+    @GET
+    @Path("/pixiv_download/{imageUrl}/{id}/{auth}")
+    @Consumes(MediaType.TEXT_PLAIN)
+    public void proxy(@PathParam("imageUrl") String imageUrl, @PathParam("id") String id,
+                      @PathParam("auth") String auth, @QueryParam("w") Integer width,
+                      @Suspended AsyncResponse asyncResponse
+    ) {
+        if (!System.getenv("AUTH").equals(auth)) {
+            PixivProxy.REQUESTS.inc("forbidden");
+            asyncResponse.resume(Response.status(403).build());
+            return;
+        }
+        if (!PixivProxy.isValidRequest(imageUrl, id) || (width != null && !PixivProxy.isValidVariantWidth(width))) {
+            PixivProxy.REQUESTS.inc("invalid");
+            asyncResponse.resume(Response.status(400).build());
+            return;
         }
 
-        int maxShards = Integer.parseInt(System.getenv("MAX_SHARDS"));
-        int fileShard = Math.abs(Objects.hash(videoDir, videoFilename)) % maxShards;
-        return Arrays.stream(System.getenv("SHARDS").split(","))
-                .map(Integer::parseInt)
-                .anyMatch(shard -> shard == fileShard);
+        try {
+            CompletableFuture<File> future = width != null
+                    ? pixivProxy.fetchVariant(imageUrl, id, width)
+                    : pixivProxy.fetch(imageUrl, id);
+            future.whenComplete((file, e) -> {
+                if (e != null) {
+                    PixivProxy.REQUESTS.inc("error");
+                    LOGGER.error("Error in /pixiv_download", e);
+                    asyncResponse.resume(Response.status(502).build());
+                } else {
+                    asyncResponse.resume(Response.ok(file.getName(), MediaType.TEXT_PLAIN).build());
+                }
+            });
+        } catch (Throwable e) {
+            PixivProxy.REQUESTS.inc("error");
+            LOGGER.error("Error in /pixiv_download", e);
+            asyncResponse.resume(Response.status(500).build());
+        }
     }
 
     private void saveVideoRequested(String id) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.set(id, Instant.now().toString());
-        }
+        accessTimestampWriter.record(id);
+        mediaIndex.touch("media/" + id, System.currentTimeMillis());
     }
 
-    private boolean fileIsVideo(String file) {
-        String[] parts = file.split("\\.");
-        return parts.length == 2 &&
-                (parts[1].equals("mp4") || parts[1].equals("avi") || parts[1].equals("webm"));
+    private String getVideoMediaType(String videoFile) {
+        if (videoFile.endsWith(".webm")) {
+            return "video/webm";
+        } else if (videoFile.endsWith(".avi")) {
+            return "video/x-msvideo";
+        } else {
+            return "video/mp4";
+        }
     }
 
     private JedisPoolConfig buildPoolConfig() {
@@ -403,17 +554,4 @@ public class RestService {
         return poolConfig;
     }
 
-
-    private static class VideoFileAndSubdomain {
-
-        private final String videoFile;
-        private final String subdomain;
-
-        public VideoFileAndSubdomain(String videoFile, String subdomain) {
-            this.videoFile = videoFile;
-            this.subdomain = subdomain;
-        }
-
-    }
-
 }
@@ -0,0 +1,84 @@
+package core;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class RetryInterceptor implements Interceptor {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(RetryInterceptor.class);
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryInterceptor(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!request.method().equals("GET")) {
+            return chain.proceed(request);
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (e instanceof OriginLimitInterceptor.LimitExceededException || attempt >= maxAttempts ||
+                        chain.call().isCanceled()
+                ) {
+                    throw e;
+                }
+                LOGGER.warn("Retrying {} after {} (attempt {})", request.url(), e.toString(), attempt);
+                sleep(computeDelayMillis(attempt, null));
+                continue;
+            }
+
+            if (!isRetryable(response.code()) || attempt >= maxAttempts || chain.call().isCanceled()) {
+                return response;
+            }
+            String retryAfter = response.header("Retry-After");
+            response.close();
+            LOGGER.warn("Retrying {} after status {} (attempt {})", request.url(), response.code(), attempt);
+            sleep(computeDelayMillis(attempt, retryAfter));
+        }
+    }
+
+    private long computeDelayMillis(int attempt, String retryAfter) {
+        if (retryAfter != null) {
+            try {
+                return Math.min(maxDelayMillis, Long.parseLong(retryAfter.trim()) * 1000);
+            } catch (NumberFormatException e) {
+                // http dates are not worth supporting here, fall back to the backoff
+            }
+        }
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    private void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static boolean isRetryable(int code) {
+        return code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+}
@@ -0,0 +1,22 @@
+package core;
+
+public class Rule34Source extends MediaSource {
+
+    public Rule34Source() {
+        super("rule34", 1, "api-cdn-mp4");
+    }
+
+    @Override
+    public boolean isValid(String subdomain, String videoDir, String videoFile) {
+        return isSubdomain(subdomain) &&
+                isDigits(videoDir) &&
+                isFileName(videoFile, true) &&
+                isVideoFile(videoFile);
+    }
+
+    @Override
+    public String getVideoUrl(String subdomain, String videoDir, String videoFile) {
+        return "https://" + subdomain + ".rule34.xxx/images/" + videoDir + "/" + videoFile;
+    }
+
+}
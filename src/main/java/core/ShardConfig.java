@@ -0,0 +1,67 @@
+package core;
+
+import util.HashUtil;
+
+import java.util.BitSet;
+
+public class ShardConfig {
+
+    private final boolean blocking;
+    private final int maxShards;
+    private final BitSet shards;
+
+    public ShardConfig(boolean blocking, int maxShards, BitSet shards) {
+        this.blocking = blocking;
+        this.maxShards = maxShards;
+        this.shards = shards;
+    }
+
+    public static ShardConfig fromEnv() {
+        if (!Boolean.parseBoolean(System.getenv("SHARD_BLOCKING"))) {
+            return new ShardConfig(false, 1, new BitSet());
+        }
+
+        int maxShards = Integer.parseInt(System.getenv("MAX_SHARDS"));
+        return new ShardConfig(true, maxShards, parseShards(System.getenv("SHARDS"), maxShards));
+    }
+
+    public static BitSet parseShards(String shardsString, int maxShards) {
+        BitSet shards = new BitSet(maxShards);
+        for (String shard : shardsString.split(",")) {
+            int shardId = Integer.parseInt(shard.trim());
+            if (shardId < 0 || shardId >= maxShards) {
+                throw new IllegalArgumentException("Invalid shard " + shardId + " for " + maxShards + " shards");
+            }
+            shards.set(shardId);
+        }
+        return shards;
+    }
+
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+    public int getMaxShards() {
+        return maxShards;
+    }
+
+    public boolean isResponsible(String videoDir, String videoFilename) {
+        return !blocking || shards.get(getShard(videoDir, videoFilename, maxShards));
+    }
+
+    public static int getShard(String videoDir, String videoFilename, int maxShards) {
+        return jumpConsistentHash(HashUtil.hash64(videoDir, '/', videoFilename), maxShards);
+    }
+
+    public static int jumpConsistentHash(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+}
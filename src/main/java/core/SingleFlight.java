@@ -0,0 +1,36 @@
+package core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+
+    public CompletableFuture<V> run(K key, Supplier<CompletableFuture<V>> task) {
+        AtomicBoolean created = new AtomicBoolean(false);
+        CompletableFuture<V> future = flights.computeIfAbsent(key, k -> {
+            created.set(true);
+            try {
+                return task.get();
+            } catch (Throwable e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+        if (created.get()) {
+            future.whenComplete((value, e) -> flights.remove(key, future));
+        }
+        return future;
+    }
+
+    public CompletableFuture<V> get(K key) {
+        return flights.get(key);
+    }
+
+    public int size() {
+        return flights.size();
+    }
+
+}
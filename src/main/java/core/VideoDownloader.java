@@ -3,136 +3,422 @@ package core;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.ResponseBody;
-import okio.BufferedSink;
-import okio.Okio;
+import okio.BufferedSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
 import java.time.Duration;
-import java.time.Instant;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 public class VideoDownloader {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(VideoDownloader.class);
-    private static final String VIDEO_ROOT_DIR = "/cdn/media";
-    private static final Duration VIDEO_CACHE_MAX_AGE = Duration.ofDays(30);
+    static final String CDN_ROOT_DIR = System.getenv().getOrDefault("CDN_ROOT", System.getProperty("cdn.root", "/cdn"));
+    static final String VIDEO_ROOT_DIR = CDN_ROOT_DIR + "/media";
+    static final String PART_SUFFIX = ".part";
+    static final String META_SUFFIX = ".meta";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final boolean FASTSTART = Boolean.parseBoolean(System.getenv("MP4_FASTSTART"));
+    private static final Duration DOWNLOAD_DEADLINE = Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("DOWNLOAD_DEADLINE_SECONDS", "300")));
+    private static final Metrics.Counter CACHE_REQUESTS = Metrics.counter("media_cache_requests_total",
+            "Video lookups by domain and result", "domain", "result");
+    private static final Metrics.Counter SINGLE_FLIGHT_REQUESTS = Metrics.counter("media_single_flight_requests_total",
+            "Cache misses that started a download (leader) or joined a running one (follower)", "role");
+    private static final Metrics.Histogram SINGLE_FLIGHT_WAIT = Metrics.histogram("media_single_flight_wait_seconds",
+            "Time followers waited for a running download");
+    private static final Metrics.Histogram DOWNLOAD_DURATION = Metrics.histogram("media_download_duration_seconds",
+            "Duration of completed downloads by domain and source", "domain", "source");
+    private static final Metrics.Counter DOWNLOAD_BYTES = Metrics.counter("media_download_bytes_total",
+            "Bytes downloaded by domain and source", "domain", "source");
+    private static final Metrics.Counter DOWNLOAD_FAILURES = Metrics.counter("media_download_failures_total",
+            "Failed downloads by domain", "domain");
+    private static final Metrics.Counter DEADLINES_EXCEEDED = Metrics.counter("media_download_deadlines_exceeded_total",
+            "Downloads cancelled by their deadline by domain", "domain");
+    private static final Metrics.Counter FASTSTART_RESULTS = Metrics.counter("media_faststart_total",
+            "MP4 faststart passes by result", "result");
+    private static final Metrics.Histogram FASTSTART_DURATION = Metrics.histogram("media_faststart_duration_seconds",
+            "Duration of MP4 faststart remuxing");
 
-    private final LockManager lockManager;
-    private final JedisPool jedisPool;
     private final OkHttpClient httpClient;
+    private final MediaIndex mediaIndex;
+    private final PeerFetcher peerFetcher;
+    private final HashedWheelTimer timer;
+    private final BlobStore blobStore;
+    private final DownloadScheduler downloadScheduler = new DownloadScheduler(
+            Program.newExecutorService(),
+            Integer.parseInt(System.getenv().getOrDefault("PREFETCH_CONCURRENCY", "4")),
+            Integer.parseInt(System.getenv().getOrDefault("PREFETCH_MAX_QUEUE", "10000"))
+    );
+    private final ExecutorService segmentExecutor = Program.newExecutorService();
+    private final SingleFlight<String, File> downloads = new SingleFlight<>();
+    private final Map<CompletableFuture<File>, GrowingFile> growingFiles = new ConcurrentHashMap<>();
 
-    public VideoDownloader(LockManager lockManager, JedisPool jedisPool, OkHttpClient httpClient) {
-        this.lockManager = lockManager;
-        this.jedisPool = jedisPool;
+    public VideoDownloader(OkHttpClient httpClient, MediaIndex mediaIndex, PeerFetcher peerFetcher, HashedWheelTimer timer,
+                           BlobStore blobStore
+    ) {
         this.httpClient = httpClient;
-        if (Boolean.parseBoolean(System.getenv("CACHE_CLEANER"))) {
-            startCacheCleaner();
-        }
-    }
-
-    public void downloadVideo(String domain, String videoUrl, String videoDir, String videoFilename) {
-        String videoFullDir = VIDEO_ROOT_DIR + "/" + domain + "/" + videoDir;
-        File videoFile = new File(videoFullDir + "/" + videoFilename);
-        synchronized (lockManager.get(videoUrl)) {
-            if (!videoFile.exists()) {
-                new File(videoFullDir).mkdir();
-                LOGGER.info("Downloading video: {}", videoUrl);
-
-                Request request = new Request.Builder()
-                        .header("User-Agent", RestService.USER_AGENT)
-                        .header("Accept-Encoding", "gzip")
-                        .url(videoUrl)
-                        .get()
-                        .build();
-                try (okhttp3.Response response = httpClient.newCall(request).execute();
-                     ResponseBody body = response.body();
-                     BufferedSink sink = Okio.buffer(Okio.sink(videoFile));
-                ) {
-                    sink.writeAll(body.source());
-                } catch (IOException e) {
-                    LOGGER.error("Exception on video download", e);
-                }
-                LOGGER.info("Video download complete: {}", videoUrl);
+        this.mediaIndex = mediaIndex;
+        this.peerFetcher = peerFetcher;
+        this.timer = timer;
+        this.blobStore = blobStore;
+    }
+
+    public CompletableFuture<File> downloadVideo(String domain, String videoUrl, String videoDir, String videoFilename) {
+        return downloadVideo(domain, videoUrl, videoDir, videoFilename, DownloadScheduler.Priority.INTERACTIVE);
+    }
+
+    public CompletableFuture<File> prefetchVideo(String domain, String videoUrl, String videoDir, String videoFilename) {
+        return downloadVideo(domain, videoUrl, videoDir, videoFilename, DownloadScheduler.Priority.PREFETCH);
+    }
+
+    private CompletableFuture<File> downloadVideo(String domain, String videoUrl, String videoDir, String videoFilename,
+                                                  DownloadScheduler.Priority priority
+    ) {
+        String indexPath = getIndexPath(domain, videoDir, videoFilename);
+        File videoFile = new File(CDN_ROOT_DIR + "/" + indexPath);
+        if (isCached(indexPath, videoFile)) {
+            CACHE_REQUESTS.inc(domain, "hit");
+            return CompletableFuture.completedFuture(videoFile);
+        }
+        CACHE_REQUESTS.inc(domain, "miss");
+
+        String key = videoFile.getPath();
+        boolean[] leader = new boolean[1];
+        CompletableFuture<File> future = downloads.run(key, () -> {
+            leader[0] = true;
+            return startDownload(domain, videoUrl, videoDir, videoFilename, videoFile, priority);
+        });
+        if (leader[0]) {
+            SINGLE_FLIGHT_REQUESTS.inc("leader");
+        } else {
+            SINGLE_FLIGHT_REQUESTS.inc("follower");
+            long startNanos = System.nanoTime();
+            future.whenComplete((file, e) -> SINGLE_FLIGHT_WAIT.observeNanos(System.nanoTime() - startNanos));
+        }
+        if (priority == DownloadScheduler.Priority.INTERACTIVE) {
+            downloadScheduler.promote(key);
+        }
+        return future;
+    }
+
+    public DownloadScheduler getDownloadScheduler() {
+        return downloadScheduler;
+    }
+
+    public GrowingFile openVideo(String domain, String videoUrl, String videoDir, String videoFilename) {
+        CompletableFuture<File> future = downloadVideo(domain, videoUrl, videoDir, videoFilename);
+        GrowingFile growingFile = growingFiles.get(future);
+        if (growingFile != null) {
+            return growingFile;
+        }
+
+        File videoFile = future.join();
+        if (!videoFile.exists() && mediaIndex.remove(getIndexPath(domain, videoDir, videoFilename))) {
+            LOGGER.warn("Indexed video is missing on disk: {}", videoFile);
+            return openVideo(domain, videoUrl, videoDir, videoFilename);
+        }
+        return GrowingFile.completed(videoFile);
+    }
+
+    public File getCachedVideo(String domain, String videoDir, String videoFilename) {
+        String indexPath = getIndexPath(domain, videoDir, videoFilename);
+        File videoFile = new File(CDN_ROOT_DIR + "/" + indexPath);
+        if (!isCached(indexPath, videoFile)) {
+            CACHE_REQUESTS.inc(domain, "miss");
+            return null;
+        }
+        CACHE_REQUESTS.inc(domain, "hit");
+        return videoFile;
+    }
+
+    private boolean isCached(String indexPath, File videoFile) {
+        if (!mediaIndex.isReady()) {
+            return videoFile.exists();
+        }
+        if (!mediaIndex.contains(indexPath)) {
+            return false;
+        }
+        if (videoFile.isFile()) {
+            return true;
+        }
+        if (mediaIndex.remove(indexPath)) {
+            LOGGER.warn("Indexed video is missing on disk: {}", videoFile);
+        }
+        return false;
+    }
+
+    private String getIndexPath(String domain, String videoDir, String videoFilename) {
+        return "media/" + domain + "/" + videoDir + "/" + videoFilename;
+    }
+
+    private CompletableFuture<File> startDownload(String domain, String videoUrl, String videoDir, String videoFilename, File videoFile,
+                                                  DownloadScheduler.Priority priority
+    ) {
+        File partFile = new File(videoFile.getPath() + PART_SUFFIX);
+        GrowingFile growingFile = new GrowingFile(videoFile, partFile);
+        CompletableFuture<File> completion = growingFile.getCompletion();
+        growingFiles.put(completion, growingFile);
+        completion.whenComplete((file, e) -> growingFiles.remove(completion));
+        boolean accepted = downloadScheduler.submit(videoFile.getPath(), priority, () -> download(domain, videoUrl, videoDir, videoFilename, growingFile));
+        if (!accepted) {
+            growingFile.fail(new IOException("Prefetch queue is full"));
+        }
+        return completion;
+    }
+
+    private void download(String domain, String videoUrl, String videoDir, String videoFilename, GrowingFile growingFile) {
+        String indexPath = getIndexPath(domain, videoDir, videoFilename);
+        File partFile = growingFile.getPartFile();
+        File metaFile = new File(partFile.getPath() + META_SUFFIX);
+        long startNanos = System.nanoTime();
+        Deadline deadline = new Deadline(timer, DOWNLOAD_DEADLINE);
+        MessageDigest digest = blobStore != null ? BlobStore.newDigest() : null;
+        try {
+            partFile.getParentFile().mkdirs();
+            Properties meta = readMeta(metaFile, videoUrl);
+            String validator = meta != null ? meta.getProperty("etag", meta.getProperty("lastModified")) : null;
+            long offset = validator != null ? partFile.length() : 0;
+
+            String source = "peer";
+            long bytes;
+            if (offset > 0 || !downloadFromPeer(domain, videoDir, videoFilename, growingFile, deadline, digest)) {
+                source = "origin";
+                bytes = downloadFromOrigin(videoUrl, growingFile, metaFile, meta, validator, offset, deadline, digest);
+            } else {
+                bytes = partFile.length();
+            }
+
+            metaFile.delete();
+            File publishFile = FASTSTART && videoFilename.endsWith(".mp4") ? faststart(growingFile) : partFile;
+            if (blobStore != null) {
+                publishFile = deduplicate(growingFile, publishFile, digest);
+            }
+            growingFile.publish(publishFile, file -> mediaIndex.put(indexPath, domain, file.length(), System.currentTimeMillis()));
+            DOWNLOAD_DURATION.observeNanos(System.nanoTime() - startNanos, domain, source);
+            DOWNLOAD_BYTES.add(bytes, domain, source);
+            LOGGER.info("Video download complete: {}", videoUrl);
+        } catch (IOException e) {
+            DOWNLOAD_FAILURES.inc(domain);
+            if (deadline.isExpired()) {
+                DEADLINES_EXCEEDED.inc(domain);
+                IOException deadlineException = deadline.newException(videoUrl);
+                deadlineException.initCause(e);
+                growingFile.fail(deadlineException);
+            } else {
+                growingFile.fail(e);
+            }
+        } catch (Throwable e) {
+            DOWNLOAD_FAILURES.inc(domain);
+            growingFile.fail(new IOException(e));
+            throw e;
+        } finally {
+            deadline.close();
+        }
+    }
+
+    private File faststart(GrowingFile growingFile) {
+        File partFile = growingFile.getPartFile();
+        File remuxedFile = new File(growingFile.getFile().getPath() + ".faststart" + PART_SUFFIX);
+        long startNanos = System.nanoTime();
+        try {
+            if (Mp4Faststart.remux(partFile, remuxedFile)) {
+                FASTSTART_RESULTS.inc("remuxed");
+                FASTSTART_DURATION.observeNanos(System.nanoTime() - startNanos);
+                return remuxedFile;
             }
+            FASTSTART_RESULTS.inc("skipped");
+        } catch (IOException | RuntimeException e) {
+            // malformed files are published unchanged
+            LOGGER.warn("Faststart remux failed for {}", growingFile.getFile(), e);
+            FASTSTART_RESULTS.inc("failed");
+            remuxedFile.delete();
         }
+        return partFile;
     }
 
-    private void startCacheCleaner() {
-        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
-        executorService.scheduleAtFixedRate(() -> {
-            LOGGER.info("Starting cache cleaner...");
-            cleanCacheOneLevel("rule34");
-            cleanCacheTwoLevels("danbooru");
-            cleanCacheTwoLevels("realbooru");
-        }, 0, 1, TimeUnit.DAYS);
-    }
-
-    private void cleanCacheOneLevel(String domain) {
-        int fileCount = 0;
-        int fileDeleteCount = 0;
-        int fileDeleteErrorCount = 0;
-
-        try (Jedis jedis = jedisPool.getResource()) {
-            File rootDirFile = new File(VIDEO_ROOT_DIR + "/" + domain);
-            for (File dir : rootDirFile.listFiles()) {
-                for (File videoFile : dir.listFiles()) {
-                    String[] parts = videoFile.getAbsolutePath().split("/");
-                    String redisKey = parts[parts.length - 3] + "/" + parts[parts.length - 2] + "/" + parts[parts.length - 1];
-                    String redisValue = jedis.get(redisKey);
-                    Instant videoInstant = redisValue != null ? Instant.parse(redisValue).plus(VIDEO_CACHE_MAX_AGE) : Instant.MIN;
-                    if (Instant.now().isAfter(videoInstant)) {
-                        if (videoFile.delete()) {
-                            fileDeleteCount++;
-                        } else {
-                            fileDeleteErrorCount++;
-                        }
-                    }
-                    fileCount++;
+    private File deduplicate(GrowingFile growingFile, File publishFile, MessageDigest digest) {
+        File partFile = growingFile.getPartFile();
+        try {
+            if (publishFile != partFile) {
+                digest.reset();
+                BlobStore.update(digest, publishFile, publishFile.length());
+            }
+            File linkedFile = blobStore.link(publishFile, digest.digest());
+            if (linkedFile != publishFile && publishFile != partFile) {
+                publishFile.delete();
+            }
+            return linkedFile;
+        } catch (IOException e) {
+            LOGGER.warn("Could not deduplicate {}", growingFile.getFile(), e);
+            return publishFile;
+        }
+    }
+
+    private boolean downloadFromPeer(String domain, String videoDir, String videoFilename, GrowingFile growingFile,
+                                     Deadline deadline, MessageDigest digest
+    ) throws IOException {
+        if (!peerFetcher.isEnabled()) {
+            return false;
+        }
+
+        try (okhttp3.Response response = peerFetcher.fetch(domain, videoDir, videoFilename, deadline)) {
+            if (response == null) {
+                return false;
+            }
+
+            LOGGER.info("Downloading video from peer: {}", response.request().url());
+            long expectedLength = response.body().contentLength();
+            growingFile.setExpectedLength(expectedLength);
+            long written = writeBody(response.body(), growingFile.getPartFile(), false, growingFile, digest);
+            if (expectedLength >= 0 && written != expectedLength) {
+                throw new IOException("Incomplete peer download: " + written + " / " + expectedLength + " bytes");
+            }
+            return true;
+        } catch (IOException e) {
+            if (deadline.isExpired()) {
+                throw e;
+            }
+            LOGGER.warn("Peer download failed for {}/{}/{}, falling back to origin: {}", domain, videoDir, videoFilename, e.toString());
+            growingFile.reset();
+            new FileOutputStream(growingFile.getPartFile()).close();
+            return false;
+        }
+    }
+
+    private long downloadFromOrigin(String videoUrl, GrowingFile growingFile, File metaFile, Properties meta, String validator,
+                                    long offset, Deadline deadline, MessageDigest digest
+    ) throws IOException {
+        Request.Builder requestBuilder = new Request.Builder()
+                .header("User-Agent", RestService.USER_AGENT)
+                .header("Accept-Encoding", "identity")
+                .url(videoUrl)
+                .get();
+        if (offset > 0) {
+            LOGGER.info("Resuming video download: {} ({} bytes)", videoUrl, offset);
+            requestBuilder.header("Range", "bytes=" + offset + "-")
+                    .header("If-Range", validator);
+        } else {
+            LOGGER.info("Downloading video: {}", videoUrl);
+        }
+
+        try (okhttp3.Response response = deadline.track(httpClient.newCall(requestBuilder.build())).execute();
+             ResponseBody body = response.body()
+        ) {
+            long expectedLength;
+            boolean append;
+            if (offset > 0 && response.code() == 206) {
+                expectedLength = parseContentRangeLength(response.header("Content-Range"));
+                if (expectedLength < 0 || expectedLength != Long.parseLong(meta.getProperty("length", "-1"))) {
+                    throw new IOException("Unexpected content range for resumed download: " + response.header("Content-Range"));
                 }
+                append = true;
+            } else if (offset > 0 && response.code() == 416 && Long.parseLong(meta.getProperty("length", "-1")) == offset) {
+                expectedLength = offset;
+                append = true;
+            } else if (response.code() == 200) {
+                expectedLength = body.contentLength();
+                append = false;
+                offset = 0;
+                writeMeta(metaFile, videoUrl, expectedLength, response.header("ETag"), response.header("Last-Modified"));
+            } else {
+                throw new IOException("Unexpected response code " + response.code() + " for " + videoUrl);
             }
 
-            LOGGER.info("Cache cleaner completed! ({}; {} / {} deleted; {} errors)", domain, fileDeleteCount, fileCount, fileDeleteErrorCount);
-        } catch (Throwable e) {
-            LOGGER.error("Error in cache cleaner", e);
-        }
-    }
-
-    private void cleanCacheTwoLevels(String domain) {
-        int fileCount = 0;
-        int fileDeleteCount = 0;
-        int fileDeleteErrorCount = 0;
-
-        try (Jedis jedis = jedisPool.getResource()) {
-            File rootDirFile = new File(VIDEO_ROOT_DIR + "/" + domain);
-            for (File dir1 : rootDirFile.listFiles()) {
-                for (File dir2 : dir1.listFiles()) {
-                    for (File videoFile : dir2.listFiles()) {
-                        String[] parts = videoFile.getAbsolutePath().split("/");
-                        String redisKey = parts[parts.length - 4] + "/" + parts[parts.length - 3] + "/" + parts[parts.length - 2] + "/" + parts[parts.length - 1];
-                        String redisValue = jedis.get(redisKey);
-                        Instant videoInstant = redisValue != null ? Instant.parse(redisValue).plus(VIDEO_CACHE_MAX_AGE) : Instant.MIN;
-                        if (Instant.now().isAfter(videoInstant)) {
-                            if (videoFile.delete()) {
-                                fileDeleteCount++;
-                            } else {
-                                fileDeleteErrorCount++;
-                            }
-                        }
-                        fileCount++;
-                    }
+            if (digest != null) {
+                digest.reset();
+                if (append) {
+                    BlobStore.update(digest, growingFile.getPartFile(), offset);
+                }
+            }
+            long written = offset;
+            growingFile.setExpectedLength(expectedLength);
+            growingFile.append(offset);
+            int segmentCount = response.code() == 200 ? ParallelDownload.getSegmentCount(response, expectedLength) : 1;
+            if (segmentCount > 1) {
+                written = new ParallelDownload(httpClient, segmentExecutor, deadline, videoUrl, expectedLength, growingFile)
+                        .download(response, growingFile.getPartFile(), segmentCount);
+                if (digest != null) {
+                    BlobStore.update(digest, growingFile.getPartFile(), written);
                 }
+            } else if (response.code() != 416) {
+                written += writeBody(body, growingFile.getPartFile(), append, growingFile, digest);
             }
+            if (expectedLength >= 0 && written != expectedLength) {
+                throw new IOException("Incomplete video download: " + written + " / " + expectedLength + " bytes");
+            }
+            return written - offset;
+        }
+    }
 
-            LOGGER.info("Cache cleaner completed! ({}; {} / {} deleted; {} errors)", domain, fileDeleteCount, fileCount, fileDeleteErrorCount);
-        } catch (Throwable e) {
-            LOGGER.error("Error in cache cleaner", e);
+    private long writeBody(ResponseBody body, File partFile, boolean append, GrowingFile growingFile, MessageDigest digest)
+            throws IOException {
+        long written = 0;
+        try (BufferedSource source = body.source();
+             OutputStream out = new FileOutputStream(partFile, append)
+        ) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = source.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                if (digest != null) {
+                    digest.update(buffer, 0, n);
+                }
+                written += n;
+                growingFile.append(n);
+            }
+        }
+        return written;
+    }
+
+    private Properties readMeta(File metaFile, String videoUrl) {
+        if (!metaFile.exists()) {
+            return null;
+        }
+
+        Properties meta = new Properties();
+        try (InputStream in = new FileInputStream(metaFile)) {
+            meta.load(in);
+        } catch (IOException e) {
+            LOGGER.warn("Invalid download meta file: {}", metaFile);
+            return null;
+        }
+        return videoUrl.equals(meta.getProperty("url")) ? meta : null;
+    }
+
+    private void writeMeta(File metaFile, String videoUrl, long length, String etag, String lastModified) throws IOException {
+        Properties meta = new Properties();
+        meta.setProperty("url", videoUrl);
+        meta.setProperty("length", String.valueOf(length));
+        if (etag != null && !etag.startsWith("W/")) {
+            meta.setProperty("etag", etag);
+        }
+        if (lastModified != null) {
+            meta.setProperty("lastModified", lastModified);
+        }
+        try (OutputStream out = new FileOutputStream(metaFile)) {
+            meta.store(out, null);
+        }
+    }
+
+    private long parseContentRangeLength(String contentRange) {
+        if (contentRange == null || !contentRange.contains("/")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
         }
     }
 
@@ -0,0 +1,37 @@
+package core;
+
+public class VideoRequest {
+
+    private final String domain;
+    private final String videoUrl;
+    private final String videoDir;
+    private final String videoFile;
+
+    public VideoRequest(String domain, String videoUrl, String videoDir, String videoFile) {
+        this.domain = domain;
+        this.videoUrl = videoUrl;
+        this.videoDir = videoDir;
+        this.videoFile = videoFile;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public String getVideoUrl() {
+        return videoUrl;
+    }
+
+    public String getVideoDir() {
+        return videoDir;
+    }
+
+    public String getVideoFile() {
+        return videoFile;
+    }
+
+    public String getKey() {
+        return domain + "/" + videoDir + "/" + videoFile;
+    }
+
+}
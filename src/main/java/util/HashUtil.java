@@ -0,0 +1,42 @@
+package util;
+
+public class HashUtil {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public static long hash64(CharSequence string) {
+        return mix64(fnv(FNV_OFFSET_BASIS, string));
+    }
+
+    public static long hash64(CharSequence first, char separator, CharSequence second) {
+        long hash = fnv(FNV_OFFSET_BASIS, first);
+        hash = fnv(hash, separator);
+        return mix64(fnv(hash, second));
+    }
+
+    private static long fnv(long hash, CharSequence string) {
+        for (int i = 0; i < string.length(); i++) {
+            hash = fnv(hash, string.charAt(i));
+        }
+        return hash;
+    }
+
+    private static long fnv(long hash, char c) {
+        hash ^= c & 0xFF;
+        hash *= FNV_PRIME;
+        hash ^= c >>> 8;
+        hash *= FNV_PRIME;
+        return hash;
+    }
+
+    public static long mix64(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
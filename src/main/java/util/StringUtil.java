@@ -15,4 +15,25 @@ public class StringUtil {
         return uri.substring(uri.lastIndexOf("."));
     }
 
+    public static long parseByteSize(String string) {
+        String value = string.trim().toUpperCase();
+        if (value.endsWith("B")) {
+            value = value.substring(0, value.length() - 1);
+        }
+
+        long multiplier = 1;
+        if (!value.isEmpty()) {
+            switch (value.charAt(value.length() - 1)) {
+                case 'K' -> multiplier = 1L << 10;
+                case 'M' -> multiplier = 1L << 20;
+                case 'G' -> multiplier = 1L << 30;
+                case 'T' -> multiplier = 1L << 40;
+            }
+        }
+        if (multiplier > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value.trim()) * multiplier;
+    }
+
 }
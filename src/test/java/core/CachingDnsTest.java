@@ -0,0 +1,79 @@
+package core;
+
+import okhttp3.Dns;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingDnsTest {
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void boundsNegativeEntriesForUnknownHosts() {
+        Dns upstream = hostname -> {
+            throw new UnknownHostException(hostname);
+        };
+        CachingDns dns = newCachingDns(upstream, 16);
+
+        for (int i = 0; i < 1000; i++) {
+            String hostname = "host" + i + ".invalid";
+            assertThrows(UnknownHostException.class, () -> dns.lookup(hostname));
+            assertTrue(dns.size() <= 16, "size " + dns.size());
+        }
+        assertTrue(dns.getEvictions() > 0);
+    }
+
+    @Test
+    void evictsNegativeEntriesBeforeResolvedOnes() throws UnknownHostException {
+        InetAddress address = InetAddress.getLoopbackAddress();
+        Dns upstream = hostname -> {
+            if (hostname.startsWith("bad")) {
+                throw new UnknownHostException(hostname);
+            }
+            return List.of(address);
+        };
+        CachingDns dns = newCachingDns(upstream, 8);
+
+        dns.lookup("good.example");
+        for (int i = 0; i < 100; i++) {
+            String hostname = "bad" + i + ".invalid";
+            assertThrows(UnknownHostException.class, () -> dns.lookup(hostname));
+        }
+
+        long misses = dns.getMisses();
+        assertEquals(List.of(address), dns.lookup("good.example"));
+        assertEquals(misses, dns.getMisses());
+    }
+
+    @Test
+    void interleavesFamiliesStartingWithTheFirstAddress() throws UnknownHostException {
+        InetAddress v4a = InetAddress.getByName("192.0.2.1");
+        InetAddress v4b = InetAddress.getByName("192.0.2.2");
+        InetAddress v6a = InetAddress.getByName("2001:db8::1");
+        InetAddress v6b = InetAddress.getByName("2001:db8::2");
+
+        assertEquals(List.of(v4a, v6a, v4b, v6b), CachingDns.interleaveFamilies(List.of(v4a, v4b, v6a, v6b)));
+        assertEquals(List.of(v6a, v4a, v6b, v4b), CachingDns.interleaveFamilies(List.of(v6a, v6b, v4a, v4b)));
+        assertEquals(List.of(v4a, v4b), CachingDns.interleaveFamilies(List.of(v4a, v4b)));
+    }
+
+    private CachingDns newCachingDns(Dns upstream, int maxEntries) {
+        return new CachingDns(upstream, executorService, Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofMinutes(10),
+                maxEntries);
+    }
+
+}
@@ -0,0 +1,34 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileResponderTest {
+
+    @Test
+    void parsesSatisfiableRanges() {
+        assertArrayEquals(new long[] { 0, 0 }, FileResponder.parseRange("bytes=0-0", 10));
+        assertArrayEquals(new long[] { 2, 9 }, FileResponder.parseRange("bytes=2-", 10));
+        assertArrayEquals(new long[] { 2, 9 }, FileResponder.parseRange("bytes=2-100", 10));
+        assertArrayEquals(new long[] { 5, 9 }, FileResponder.parseRange("bytes=-5", 10));
+        assertArrayEquals(new long[] { 2, 4 }, FileResponder.parseRange("bytes= 2 - 4", 10));
+    }
+
+    @Test
+    void ignoresInvalidAndMultipleRanges() {
+        assertArrayEquals(new long[0], FileResponder.parseRange("bytes=5-3", 10));
+        assertArrayEquals(new long[0], FileResponder.parseRange("bytes=0-1,4-5", 10));
+        assertArrayEquals(new long[0], FileResponder.parseRange("items=0-1", 10));
+        assertArrayEquals(new long[0], FileResponder.parseRange("bytes=a-b", 10));
+    }
+
+    @Test
+    void rejectsUnsatisfiableRanges() {
+        assertNull(FileResponder.parseRange("bytes=10-", 10));
+        assertNull(FileResponder.parseRange("bytes=10-20", 10));
+        assertNull(FileResponder.parseRange("bytes=0-0", 0));
+        assertNull(FileResponder.parseRange("bytes=-0", 10));
+    }
+
+}
@@ -0,0 +1,61 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedAccessTimeStoreTest {
+
+    private static final int KEY_COUNT = 20_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void forgetsRemovedKeysAcrossRestarts() throws IOException {
+        Path file = dir.resolve("access-times.log");
+        List<String> keys = new ArrayList<>();
+        List<Map.Entry<String, Instant>> entries = new ArrayList<>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys.add("rule34/" + i + "/video.mp4");
+            entries.add(Map.entry(keys.get(i), Instant.ofEpochMilli(i + 1)));
+        }
+        List<String> removedKeys = new ArrayList<>();
+        for (int i = 0; i < KEY_COUNT; i += 2) {
+            removedKeys.add(keys.get(i));
+        }
+
+        MappedAccessTimeStore store = new MappedAccessTimeStore(file, Duration.ofHours(1));
+        store.write(entries);
+        store.remove(removedKeys);
+        store.remove(List.of("unknown/0/video.mp4"));
+        assertRemoved(store, keys);
+        store.close();
+
+        store = new MappedAccessTimeStore(file, Duration.ofHours(1));
+        assertRemoved(store, keys);
+        store.close();
+    }
+
+    private void assertRemoved(MappedAccessTimeStore store, List<String> keys) {
+        assertEquals(KEY_COUNT / 2, store.getCount());
+        List<Instant> values = store.read(keys);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            if (i % 2 == 0) {
+                assertNotEquals(Instant.ofEpochMilli(i + 1), values.get(i), keys.get(i));
+            } else {
+                assertEquals(Instant.ofEpochMilli(i + 1), values.get(i), keys.get(i));
+            }
+        }
+    }
+
+}
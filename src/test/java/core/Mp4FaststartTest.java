@@ -0,0 +1,142 @@
+package core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Mp4FaststartTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void movesMoovInFrontOfMdatAndShiftsChunkOffsets() throws IOException {
+        byte[] ftyp = box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII), new byte[4]);
+        byte[] mdat = box("mdat", new byte[100]);
+        byte[] moov = moov(stco(ftyp.length + 8));
+        File source = write("source.mp4", ftyp, mdat, moov);
+        File target = dir.resolve("target.mp4").toFile();
+
+        assertTrue(Mp4Faststart.remux(source, target));
+
+        ByteBuffer result = ByteBuffer.wrap(Files.readAllBytes(target.toPath()));
+        assertEquals(source.length(), result.capacity());
+        assertEquals("moov", type(result, ftyp.length));
+        assertEquals("mdat", type(result, ftyp.length + moov.length));
+        int stcoEntry = ftyp.length + moov.length - 4;
+        assertEquals(ftyp.length + 8 + moov.length, result.getInt(stcoEntry));
+    }
+
+    @Test
+    void skipsAlreadyOptimizedFiles() throws IOException {
+        byte[] ftyp = box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII), new byte[4]);
+        byte[] moov = moov(stco(0));
+        File source = write("source.mp4", ftyp, moov, box("mdat", new byte[100]));
+        File target = dir.resolve("target.mp4").toFile();
+
+        assertFalse(Mp4Faststart.remux(source, target));
+        assertFalse(target.exists());
+    }
+
+    @Test
+    void skipsFilesWhoseChunkOffsetsWouldOverflowStco() throws IOException {
+        byte[] ftyp = box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII), new byte[4]);
+        long moovStart = 1L << 32;
+        byte[] moov = moov(stco(0xFFFFFFF0L));
+        File source = dir.resolve("source.mp4").toFile();
+        try (RandomAccessFile file = new RandomAccessFile(source, "rw")) {
+            file.write(ftyp);
+            ByteBuffer mdatHeader = ByteBuffer.allocate(16);
+            mdatHeader.putInt(1).put("mdat".getBytes(StandardCharsets.US_ASCII)).putLong(moovStart - ftyp.length);
+            file.write(mdatHeader.array());
+            file.seek(moovStart);
+            file.write(moov);
+        }
+        File target = dir.resolve("target.mp4").toFile();
+
+        assertFalse(Mp4Faststart.remux(source, target));
+        assertFalse(target.exists());
+    }
+
+    @Test
+    void skipsFilesWithMalformedMoovChildren() throws IOException {
+        byte[] ftyp = box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII), new byte[4]);
+        byte[] trak = box("trak", new byte[16]);
+        ByteBuffer.wrap(trak).putInt(0, 1000);
+        File source = write("source.mp4", ftyp, box("mdat", new byte[100]), box("moov", trak));
+        File target = dir.resolve("target.mp4").toFile();
+
+        assertFalse(Mp4Faststart.remux(source, target));
+        assertFalse(target.exists());
+    }
+
+    @Test
+    void skipsFilesWithTruncatedChunkOffsetBoxes() throws IOException {
+        byte[] ftyp = box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII), new byte[4]);
+        byte[] moov = moov(box("stco", new byte[2]));
+        File source = write("source.mp4", ftyp, box("mdat", new byte[100]), moov);
+        File target = dir.resolve("target.mp4").toFile();
+
+        assertFalse(Mp4Faststart.remux(source, target));
+        assertFalse(target.exists());
+    }
+
+    @Test
+    void skipsFilesWithTruncatedLargeSizeHeaders() throws IOException {
+        byte[] ftyp = box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII), new byte[4]);
+        byte[] trak = ByteBuffer.allocate(12).putInt(1).put("trak".getBytes(StandardCharsets.US_ASCII)).putInt(0).array();
+        File source = write("source.mp4", ftyp, box("mdat", new byte[100]), box("moov", trak));
+        File target = dir.resolve("target.mp4").toFile();
+
+        assertFalse(Mp4Faststart.remux(source, target));
+        assertFalse(target.exists());
+    }
+
+    private File write(String name, byte[]... parts) throws IOException {
+        File file = dir.resolve(name).toFile();
+        Files.write(file.toPath(), concat(parts));
+        return file;
+    }
+
+    private static byte[] moov(byte[] stco) {
+        return box("moov", box("trak", box("mdia", box("minf", box("stbl", stco)))));
+    }
+
+    private static byte[] stco(long offset) {
+        return box("stco", ByteBuffer.allocate(12).putInt(0).putInt(1).putInt((int) offset).array());
+    }
+
+    private static byte[] box(String type, byte[]... payloads) {
+        byte[] payload = concat(payloads);
+        return ByteBuffer.allocate(8 + payload.length)
+                .putInt(8 + payload.length)
+                .put(type.getBytes(StandardCharsets.US_ASCII))
+                .put(payload)
+                .array();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static String type(ByteBuffer buffer, int position) {
+        byte[] type = new byte[4];
+        buffer.get(position + 4, type);
+        return new String(type, StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,152 @@
+package core;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelDownloadTest {
+
+    private static final String URL = "https://origin.example/video.mp4";
+    private static final Pattern RANGE_PATTERN = Pattern.compile("^bytes=(\\d+)-(\\d+)$");
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private final HashedWheelTimer timer = HashedWheelTimer.start(Duration.ofMillis(100), 64);
+    private final byte[] content = new byte[300_000];
+    private final AtomicBoolean firstBodyOpen = new AtomicBoolean(true);
+    private final AtomicInteger rejections = new AtomicInteger();
+
+    {
+        new Random(0).nextBytes(content);
+    }
+
+    @AfterEach
+    void shutdown() {
+        executorService.shutdownNow();
+        timer.close();
+    }
+
+    @Test
+    void downloadsAllSegments() throws IOException {
+        File partFile = dir.resolve("video.mp4.part").toFile();
+
+        long written = newParallelDownload(newClient(false), partFile).download(firstResponse(0), partFile, 3);
+
+        assertEquals(content.length, written);
+        assertArrayEquals(content, Files.readAllBytes(partFile.toPath()));
+    }
+
+    @Test
+    void downloadsSegmentsWithoutOriginPermitAfterTheFirstOne() throws IOException {
+        File partFile = dir.resolve("video.mp4.part").toFile();
+
+        long written = newParallelDownload(newClient(false), partFile).download(firstResponse(2), partFile, 3);
+
+        assertEquals(content.length, written);
+        assertArrayEquals(content, Files.readAllBytes(partFile.toPath()));
+    }
+
+    @Test
+    void failsWhenDeferredSegmentsCannotGetAPermitEither() {
+        File partFile = dir.resolve("video.mp4.part").toFile();
+        ParallelDownload parallelDownload = newParallelDownload(newClient(true), partFile);
+
+        assertThrows(OriginLimitInterceptor.LimitExceededException.class,
+                () -> parallelDownload.download(firstResponse(2), partFile, 3));
+        assertEquals(content.length / 3, partFile.length());
+    }
+
+    private ParallelDownload newParallelDownload(OkHttpClient httpClient, File partFile) {
+        GrowingFile growingFile = new GrowingFile(dir.resolve("video.mp4").toFile(), partFile);
+        Deadline deadline = new Deadline(timer, Duration.ofMinutes(1));
+        return new ParallelDownload(httpClient, executorService, deadline, URL, content.length, growingFile);
+    }
+
+    /*
+     * serves ranges of content and, like an origin limiter with a limit of one, rejects ranged requests while the
+     * body of the first response is still open
+     */
+    private OkHttpClient newClient(boolean alwaysReject) {
+        return new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    Matcher matcher = RANGE_PATTERN.matcher(chain.request().header("Range"));
+                    assertTrue(matcher.matches());
+                    if (alwaysReject || firstBodyOpen.get()) {
+                        rejections.incrementAndGet();
+                        throw new OriginLimitInterceptor.LimitExceededException("Origin concurrency limit reached for origin.example");
+                    }
+                    int start = Integer.parseInt(matcher.group(1));
+                    int end = Integer.parseInt(matcher.group(2));
+                    return newResponse(chain.request(), 206, start, end)
+                            .header("Content-Range", "bytes " + start + "-" + end + "/" + content.length)
+                            .build();
+                })
+                .build();
+    }
+
+    /*
+     * the body does not deliver any bytes before the other segments saw expectedRejections rejections
+     */
+    private Response firstResponse(int expectedRejections) {
+        Request request = new Request.Builder().url(URL).build();
+        Response response = newResponse(request, 200, 0, content.length - 1).build();
+        ForwardingSource source = new ForwardingSource(response.body().source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (rejections.get() < expectedRejections && System.nanoTime() < deadlineNanos) {
+                    Thread.onSpinWait();
+                }
+                return super.read(sink, byteCount);
+            }
+
+            @Override
+            public void close() throws IOException {
+                firstBodyOpen.set(false);
+                super.close();
+            }
+        };
+        return response.newBuilder()
+                .body(ResponseBody.create(Okio.buffer(source), null, content.length))
+                .build();
+    }
+
+    private Response.Builder newResponse(Request request, int code, int start, int end) {
+        Buffer buffer = new Buffer().write(content, start, end - start + 1);
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message(code == 200 ? "OK" : "Partial Content")
+                .header("Accept-Ranges", "bytes")
+                .header("ETag", "\"abc\"")
+                .body(ResponseBody.create(buffer, null, buffer.size()));
+    }
+
+}